@@ -0,0 +1,217 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of word count tables and rendered tag clouds,
+ * bounded by an estimate of the memory its values use.
+ *
+ * @author Noah Bennett, Mark Karev
+ */
+final class CloudCache {
+
+    /**
+     * Estimated bytes used by one map entry apart from its word's characters.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * A cached value along with its estimated size.
+     */
+    private static final class Slot {
+        /**
+         * The cached value.
+         */
+        private final Object value;
+        /**
+         * Estimated size of the value in bytes.
+         */
+        private final long bytes;
+
+        /**
+         * Constructor.
+         *
+         * @param value
+         *            the cached value
+         * @param bytes
+         *            estimated size of the value in bytes
+         */
+        Slot(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Cached values in least to most recently used order.
+     */
+    private final LinkedHashMap<String, Slot> slots = new LinkedHashMap<>(16,
+            0.75f, true);
+    /**
+     * Largest amount of bytes the cache may hold.
+     */
+    private final long maxBytes;
+    /**
+     * Bytes currently held.
+     */
+    private long bytes = 0;
+    /**
+     * Amount of html lookups that found a value, one per request.
+     */
+    private long htmlHits = 0;
+    /**
+     * Amount of html lookups that found nothing, one per request.
+     */
+    private long htmlMisses = 0;
+    /**
+     * Amount of count table lookups, made on html misses, that found a value.
+     */
+    private long countHits = 0;
+    /**
+     * Amount of count table lookups, made on html misses, that found nothing.
+     */
+    private long countMisses = 0;
+    /**
+     * Amount of values removed to stay under {@code maxBytes}.
+     */
+    private long evictions = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes
+     *            largest amount of bytes the cache may hold
+     */
+    CloudCache(long maxBytes) {
+        assert maxBytes > 0 : "Violation of: maxBytes > 0";
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the count table cached under {@code key}, or null.
+     *
+     * @param key
+     *            key identifying the input
+     * @return the cached word counts
+     */
+    @SuppressWarnings("unchecked")
+    synchronized Map<String, Integer> getCounts(String key) {
+        Object words = this.get("counts:" + key);
+        if (words == null) {
+            this.countMisses++;
+        } else {
+            this.countHits++;
+        }
+        return (Map<String, Integer>) words;
+    }
+
+    /**
+     * Caches the count table of the input identified by {@code key}.
+     *
+     * @param key
+     *            key identifying the input
+     * @param words
+     *            the word counts; must not be modified afterwards
+     */
+    synchronized void putCounts(String key, Map<String, Integer> words) {
+        long size = ENTRY_OVERHEAD;
+        for (String word : words.keySet()) {
+            size += ENTRY_OVERHEAD + 2L * word.length();
+        }
+        this.put("counts:" + key, words, size);
+    }
+
+    /**
+     * Returns the html cached for the top {@code n} words of {@code key}, or
+     * null.
+     *
+     * @param key
+     *            key identifying the input
+     * @param n
+     *            the amount of words in the tag cloud
+     * @return the cached html
+     */
+    synchronized String getHtml(String key, int n) {
+        Object html = this.get("html:" + n + ":" + key);
+        if (html == null) {
+            this.htmlMisses++;
+        } else {
+            this.htmlHits++;
+        }
+        return (String) html;
+    }
+
+    /**
+     * Caches the html for the top {@code n} words of {@code key}.
+     *
+     * @param key
+     *            key identifying the input
+     * @param n
+     *            the amount of words in the tag cloud
+     * @param html
+     *            the rendered tag cloud
+     */
+    synchronized void putHtml(String key, int n, String html) {
+        this.put("html:" + n + ":" + key, html,
+                ENTRY_OVERHEAD + 2L * html.length());
+    }
+
+    /**
+     * Returns the hit, miss and size metrics of the cache. Each request makes
+     * one html lookup; the count table is only looked up when the html misses,
+     * so the two tiers are reported separately.
+     *
+     * @return one "name value" pair per line
+     */
+    synchronized String stats() {
+        return "html.hits " + this.htmlHits + "\n" + "html.misses "
+                + this.htmlMisses + "\n" + "counts.hits " + this.countHits
+                + "\n" + "counts.misses " + this.countMisses + "\n"
+                + "evictions " + this.evictions + "\n" + "entries "
+                + this.slots.size() + "\n" + "bytes " + this.bytes + "\n"
+                + "maxBytes " + this.maxBytes + "\n";
+    }
+
+    /**
+     * Looks up {@code key}.
+     *
+     * @param key
+     *            the key
+     * @return the cached value or null
+     */
+    private Object get(String key) {
+        Slot slot = this.slots.get(key);
+        return slot == null ? null : slot.value;
+    }
+
+    /**
+     * Caches {@code value} and evicts the least recently used values until the
+     * cache is under its bound. Values larger than the bound are not cached.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param size
+     *            estimated size of the value in bytes
+     */
+    private void put(String key, Object value, long size) {
+        if (size > this.maxBytes) {
+            return;
+        }
+        Slot old = this.slots.put(key, new Slot(value, size));
+        if (old != null) {
+            this.bytes -= old.bytes;
+        }
+        this.bytes += size;
+
+        //evict from the least recently used end until the cache fits
+        Iterator<Slot> iter = this.slots.values().iterator();
+        while (this.bytes > this.maxBytes && iter.hasNext()) {
+            Slot eldest = iter.next();
+            iter.remove();
+            this.bytes -= eldest.bytes;
+            this.evictions++;
+        }
+    }
+}
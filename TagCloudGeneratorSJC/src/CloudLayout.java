@@ -0,0 +1,461 @@
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Cloud Layout. Places the words of a tag cloud along a spiral so that none
+ * of them overlap and streams the result out as SVG.
+ *
+ * <p>
+ * Words are placed from the most to the least common. Each word walks an
+ * Archimedean spiral out from the center, starting at an angle drawn from a
+ * seeded {@link Random} so the same seed always gives the same layout, and is
+ * placed at the first position where it doesn't intersect a word already in
+ * the {@link QuadTree}. A word's walk resumes where the last word of the same
+ * size was placed, since the spiral inside that point is already crowded.
+ * Word sizes come from the metrics of the font in {@code tagcloud.css}
+ * scaled to the {@code f11}-{@code f48} sizes.
+ *
+ * @author Noah Bennett, Mark Karev
+ */
+public final class CloudLayout {
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private CloudLayout() {
+    }
+
+    /**
+     * Font family used by {@code tagcloud.css}.
+     */
+    private static final String FAMILY = "Arial";
+    /**
+     * Size the font metrics are measured at before scaling.
+     */
+    private static final float BASE_SIZE = 100f;
+    /**
+     * Padding around each word in pixels.
+     */
+    private static final double PAD = 1.5;
+    /**
+     * Ratio of canvas area to the total area of the words.
+     */
+    private static final double FILL = 2.5;
+    /**
+     * Ratio of canvas width to height.
+     */
+    private static final double ASPECT = 4.0 / 3.0;
+    /**
+     * Distance in pixels between turns of the spiral.
+     */
+    private static final double SPACING = 3.0;
+    /**
+     * Distance in pixels moved along the spiral between collision checks.
+     */
+    private static final double STEP = 3.0;
+
+    /**
+     * Largest font size {@code calcSize} returns.
+     */
+    private static final int MAXSIZE = 48;
+
+    /**
+     * Advance widths at {@code BASE_SIZE} per character of the Basic
+     * Multilingual Plane, NaN until measured.
+     */
+    private static float[] advances;
+    /**
+     * Advance widths at {@code BASE_SIZE} of code points above the Basic
+     * Multilingual Plane, such as emoji.
+     */
+    private static Map<Integer, Float> supplementaryAdvances;
+    /**
+     * Font family the SVG names, the one the widths were measured with.
+     */
+    private static String svgFamily;
+    /**
+     * Ascent at {@code BASE_SIZE}.
+     */
+    private static float ascent;
+    /**
+     * Ascent plus descent at {@code BASE_SIZE}.
+     */
+    private static float height;
+    /**
+     * Font at {@code BASE_SIZE}.
+     */
+    private static Font font;
+    /**
+     * Context used to measure the font.
+     */
+    private static FontRenderContext frc;
+
+    /**
+     * Quadtree of placed word rectangles. Rectangles are only kept in leaves,
+     * in every leaf they overlap, so words straddling the center of the
+     * canvas don't pile up in the root.
+     */
+    private static final class QuadTree {
+        /**
+         * Rectangles a leaf holds before it splits.
+         */
+        private static final int CAPACITY = 8;
+        /**
+         * Deepest level a node may split to.
+         */
+        private static final int MAX_DEPTH = 10;
+
+        /**
+         * Bounds of this node.
+         */
+        private final double x, y, w, h;
+        /**
+         * Depth of this node.
+         */
+        private final int depth;
+        /**
+         * Rectangles stored as {x, y, w, h}, or null if this node has split.
+         */
+        private List<double[]> rects = new ArrayList<double[]>();
+        /**
+         * Children, or null if this node hasn't split.
+         */
+        private QuadTree[] children = null;
+
+        /**
+         * Constructor.
+         *
+         * @param x
+         *            left edge
+         * @param y
+         *            top edge
+         * @param w
+         *            width
+         * @param h
+         *            height
+         * @param depth
+         *            depth of the node
+         */
+        QuadTree(double x, double y, double w, double h, int depth) {
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.depth = depth;
+        }
+
+        /**
+         * Adds {@code r} to every leaf it overlaps.
+         *
+         * @param r
+         *            the rectangle
+         */
+        void insert(double[] r) {
+            if (this.children != null) {
+                for (QuadTree c : this.children) {
+                    if (overlap(r, c.x, c.y, c.w, c.h)) {
+                        c.insert(r);
+                    }
+                }
+                return;
+            }
+            this.rects.add(r);
+            if (this.rects.size() > CAPACITY && this.depth < MAX_DEPTH) {
+                double hw = this.w / 2;
+                double hh = this.h / 2;
+                int d = this.depth + 1;
+                this.children = new QuadTree[] {
+                        new QuadTree(this.x, this.y, hw, hh, d),
+                        new QuadTree(this.x + hw, this.y, hw, hh, d),
+                        new QuadTree(this.x, this.y + hh, hw, hh, d),
+                        new QuadTree(this.x + hw, this.y + hh, hw, hh, d) };
+
+                //push every rectangle down into the children it overlaps
+                List<double[]> old = this.rects;
+                this.rects = null;
+                for (double[] o : old) {
+                    this.insert(o);
+                }
+            }
+        }
+
+        /**
+         * Reports whether {@code r} intersects any rectangle in the tree.
+         *
+         * @param r
+         *            the rectangle
+         * @return true if it intersects
+         */
+        boolean intersects(double[] r) {
+            if (this.children != null) {
+                for (QuadTree c : this.children) {
+                    if (overlap(r, c.x, c.y, c.w, c.h) && c.intersects(r)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            for (double[] o : this.rects) {
+                if (overlap(r, o[0], o[1], o[2], o[3])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reports whether {@code r} overlaps the rectangle {@code x, y, w, h}.
+     *
+     * @param r
+     *            rectangle as {x, y, w, h}
+     * @param x
+     *            left edge
+     * @param y
+     *            top edge
+     * @param w
+     *            width
+     * @param h
+     *            height
+     * @return true if they overlap
+     */
+    private static boolean overlap(double[] r, double x, double y, double w,
+            double h) {
+        return r[0] < x + w && x < r[0] + r[2] && r[1] < y + h
+                && y < r[1] + r[3];
+    }
+
+    /**
+     * Loads the font metrics the first time they are needed.
+     */
+    private static synchronized void loadFont() {
+        if (font == null) {
+            if (System.getProperty("java.awt.headless") == null) {
+                System.setProperty("java.awt.headless", "true");
+            }
+            font = new Font(FAMILY, Font.PLAIN, 1).deriveFont(BASE_SIZE);
+            frc = new FontRenderContext(null, true, true);
+
+            //Java silently falls back to a logical font when the family
+            //isn't installed, so name the family that was really measured
+            svgFamily = font.getFamily();
+            if (!svgFamily.equalsIgnoreCase(FAMILY)) {
+                System.err.println("Warning: font " + FAMILY
+                        + " not found, word widths are measured with "
+                        + svgFamily);
+                if (svgFamily.equals(Font.MONOSPACED)
+                        || svgFamily.equals(Font.DIALOG_INPUT)) {
+                    svgFamily = "monospace";
+                } else if (svgFamily.equals(Font.SERIF)) {
+                    svgFamily = "serif";
+                } else if (svgFamily.equals(Font.DIALOG)
+                        || svgFamily.equals(Font.SANS_SERIF)) {
+                    svgFamily = "sans-serif";
+                }
+            }
+            LineMetrics lm = font.getLineMetrics("Mg", frc);
+            ascent = lm.getAscent();
+            height = lm.getAscent() + lm.getDescent();
+            advances = new float[Character.MAX_VALUE + 1];
+            Arrays.fill(advances, Float.NaN);
+            supplementaryAdvances = new HashMap<Integer, Float>();
+        }
+    }
+
+    /**
+     * Returns the width of {@code word} at {@code fontSize} pixels. Widths
+     * are summed from per code point advances, which ignores kerning and so
+     * errs on the wide side.
+     *
+     * @param word
+     *            the word
+     * @param fontSize
+     *            the font size
+     * @return width in pixels
+     */
+    private static double width(String word, int fontSize) {
+        float sum = 0;
+        int i = 0;
+        while (i < word.length()) {
+            int cp = word.codePointAt(i);
+            float a;
+            if (cp <= Character.MAX_VALUE) {
+                a = advances[cp];
+                if (Float.isNaN(a)) {
+                    a = advance(cp);
+                    advances[cp] = a;
+                }
+            } else {
+                Float cached = supplementaryAdvances.get(cp);
+                if (cached == null) {
+                    cached = advance(cp);
+                    supplementaryAdvances.put(cp, cached);
+                }
+                a = cached;
+            }
+            sum += a;
+            i += Character.charCount(cp);
+        }
+        return sum * fontSize / BASE_SIZE;
+    }
+
+    /**
+     * Measures the advance of {@code cp} at {@code BASE_SIZE}.
+     *
+     * @param cp
+     *            the code point
+     * @return its advance in pixels
+     */
+    private static float advance(int cp) {
+        return (float) font
+                .getStringBounds(new String(Character.toChars(cp)), frc)
+                .getWidth();
+    }
+
+    /**
+     * Lays out the words and prints them as an SVG tag cloud. Words that
+     * can't be placed on the canvas are left out.
+     *
+     * @param out
+     *            output stream
+     * @param n
+     *            amount of words in the tag cloud
+     * @param file
+     *            name of the input shown in the title
+     * @param words
+     *            pairs of words and counts sorted by decreasing count
+     * @param seed
+     *            seed of the layout
+     */
+    static void printSvg(PrintWriter out, int n, String file,
+            List<Map.Entry<String, Integer>> words, long seed) {
+        assert out != null : "Violation of: Output stream is not null";
+        assert !file.isEmpty() : "Violation of: file is not null";
+
+        loadFont();
+        int count = words.size();
+        int maxword = count > 0 ? words.get(0).getValue() : 1;
+
+        //measure every word and the area they take together
+        int[] sizes = new int[count];
+        double[] ws = new double[count];
+        double[] hs = new double[count];
+        double area = 0;
+        for (int i = 0; i < count; i++) {
+            Map.Entry<String, Integer> p = words.get(i);
+            sizes[i] = TagCloudGeneratorSJC.calcSize(n, p.getValue(),
+                    maxword);
+            ws[i] = width(p.getKey(), sizes[i]) + 2 * PAD;
+            hs[i] = height * sizes[i] / BASE_SIZE + 2 * PAD;
+            area += ws[i] * hs[i];
+        }
+        double canvasH = Math.ceil(Math.sqrt(area * FILL / ASPECT));
+        double canvasW = Math.ceil(canvasH * ASPECT);
+        for (int i = 0; i < count; i++) {
+            canvasW = Math.max(canvasW, Math.ceil(2 * ws[i]));
+            canvasH = Math.max(canvasH, Math.ceil(3 * hs[i]));
+        }
+        double cx = canvasW / 2;
+        double cy = canvasH / 2;
+        double maxR = Math.sqrt(cx * cx + cy * cy);
+
+        //print the svg opening tags and title
+        out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.println(
+                "<?xml-stylesheet href=\"tagcloud.css\" type=\"text/css\"?>");
+        out.println("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\""
+                + (long) canvasW + "\" height=\"" + (long) canvasH
+                + "\" viewBox=\"0 0 " + (long) canvasW + " "
+                + (long) canvasH + "\" font-family=\"" + svgFamily + "\">");
+        out.println("  <title>Top " + n + " words in "
+                + TagCloudGeneratorSJC.escapeHtml(file) + "</title>");
+
+        //walk each word along its spiral until it fits, then print it
+        QuadTree placed = new QuadTree(0, 0, canvasW, canvasH, 0);
+        Random random = new Random(seed);
+        double[] resume = new double[MAXSIZE + 1];
+        for (int i = 0; i < count; i++) {
+            double start = random.nextDouble() * 2 * Math.PI;
+            double[] r = { 0, 0, ws[i], hs[i] };
+            double t = resume[sizes[i]];
+            boolean fit = false;
+            double radius = 0;
+            while (!fit && radius <= maxR) {
+                radius = SPACING * t / (2 * Math.PI);
+                r[0] = cx + radius * Math.cos(t + start) - ws[i] / 2;
+                r[1] = cy + radius * Math.sin(t + start) - hs[i] / 2;
+                if (r[0] >= 0 && r[1] >= 0 && r[0] + r[2] <= canvasW
+                        && r[1] + r[3] <= canvasH && !placed.intersects(r)) {
+                    fit = true;
+                } else {
+                    t += STEP / Math.max(radius, STEP);
+                }
+            }
+            if (fit) {
+                placed.insert(r);
+                resume[sizes[i]] = t;
+                Map.Entry<String, Integer> p = words.get(i);
+                out.printf(Locale.ROOT,
+                        "  <text x=\"%.1f\" y=\"%.1f\" class=\"f%d\""
+                                + " font-size=\"%d\"><title>count: %d"
+                                + "</title>%s</text>%n",
+                        r[0] + PAD,
+                        r[1] + PAD + ascent * sizes[i] / BASE_SIZE, sizes[i],
+                        sizes[i], p.getValue(),
+                        TagCloudGeneratorSJC.escapeHtml(p.getKey()));
+            }
+        }
+
+        //print closing tag
+        out.println("</svg>");
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the input file, the amount of words, the output file and an
+     *            optional seed
+     * @throws IOException
+     *             if the output file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println(
+                    "Usage: CloudLayout <input> <n> <output.svg> [seed]");
+            return;
+        }
+        int n;
+        long seed = 0;
+        try {
+            n = Integer.parseInt(args[1]);
+            if (args.length > 3) {
+                seed = Long.parseLong(args[3]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Error: Number is in the wrong format");
+            return;
+        }
+        if (n <= 0) {
+            System.out.println("Error: Value greater than 0 required");
+            return;
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(args[2]),
+                        "UTF-8")));
+        TagCloudGeneratorSJC.printAllSvg(out, n, args[0], seed);
+        out.close();
+    }
+}
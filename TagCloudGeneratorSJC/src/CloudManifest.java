@@ -0,0 +1,354 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Manifest of the inputs a batch run has already turned into tag clouds.
+ * Records each input's size, modification time and content hashes together
+ * with the amount of words and options it was rendered with, and the size
+ * and modification time of its tag cloud, so unchanged inputs can be skipped
+ * while a tag cloud that was overwritten or edited is regenerated.
+ *
+ * <p>
+ * An input whose size and modification time are unchanged is current without
+ * being read. Otherwise a sampled hash of a few chunks is compared first and
+ * the full hash is only computed when the sample matches, so a touched but
+ * unchanged file is not regenerated. The input is fingerprinted before its
+ * tag cloud is rendered, so an input written during rendering no longer
+ * matches what was recorded and is regenerated by the next run.
+ *
+ * @author Noah Bennett, Mark Karev
+ */
+final class CloudManifest {
+
+    /**
+     * Size of each chunk read for hashing.
+     */
+    private static final int CHUNK = 64 * 1024;
+
+    /**
+     * What was recorded about one input.
+     */
+    private static final class Record {
+        /**
+         * Length of the input in bytes.
+         */
+        private long size;
+        /**
+         * Modification time of the input.
+         */
+        private long mtime;
+        /**
+         * Hash of sampled chunks of the input.
+         */
+        private String sampleHash;
+        /**
+         * Hash of the whole input.
+         */
+        private String fullHash;
+        /**
+         * Amount of words in the tag cloud.
+         */
+        private int n;
+        /**
+         * Length of the tag cloud in bytes.
+         */
+        private long outputSize;
+        /**
+         * Modification time of the tag cloud.
+         */
+        private long outputMtime;
+        /**
+         * Options the tag cloud was rendered with.
+         */
+        private String options;
+    }
+
+    /**
+     * Size, modification time and content hashes of an input, taken in that
+     * order. The hashes are computed when first asked for.
+     */
+    static final class Fingerprint {
+        /**
+         * The input file.
+         */
+        private final File input;
+        /**
+         * Length of the input in bytes.
+         */
+        private final long size;
+        /**
+         * Modification time of the input.
+         */
+        private final long mtime;
+        /**
+         * Hash of sampled chunks of the input, or null until computed.
+         */
+        private String sampleHash;
+        /**
+         * Hash of the whole input, or null until computed.
+         */
+        private String fullHash;
+
+        /**
+         * Constructor. Reads the size and modification time of
+         * {@code input}.
+         *
+         * @param input
+         *            the input file
+         */
+        Fingerprint(File input) {
+            this.input = input;
+            this.size = input.length();
+            this.mtime = input.lastModified();
+        }
+
+        /**
+         * Returns the hash of sampled chunks of the input.
+         *
+         * @return hex hash
+         * @throws IOException
+         *             if the input can't be read
+         */
+        String sampleHash() throws IOException {
+            if (this.sampleHash == null) {
+                this.sampleHash = CloudManifest.sampleHash(this.input);
+            }
+            return this.sampleHash;
+        }
+
+        /**
+         * Returns the hash of the whole input.
+         *
+         * @return hex hash
+         * @throws IOException
+         *             if the input can't be read
+         */
+        String fullHash() throws IOException {
+            if (this.fullHash == null) {
+                this.fullHash = CloudManifest.fullHash(this.input);
+            }
+            return this.fullHash;
+        }
+    }
+
+    /**
+     * The manifest file.
+     */
+    private final File file;
+    /**
+     * Records by absolute input path.
+     */
+    private final Map<String, Record> records = new HashMap<>();
+    /**
+     * Whether the records changed since they were loaded.
+     */
+    private boolean dirty = false;
+
+    /**
+     * Constructor. Loads {@code file} if it exists.
+     *
+     * @param file
+     *            the manifest file
+     * @throws IOException
+     *             if the manifest can't be read
+     */
+    CloudManifest(File file) throws IOException {
+        this.file = file;
+        if (file.isFile()) {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                String line = in.readLine();
+                while (line != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length == 9) {
+                        Record r = new Record();
+                        r.size = Long.parseLong(fields[1]);
+                        r.mtime = Long.parseLong(fields[2]);
+                        r.sampleHash = fields[3];
+                        r.fullHash = fields[4];
+                        r.n = Integer.parseInt(fields[5]);
+                        r.outputSize = Long.parseLong(fields[6]);
+                        r.outputMtime = Long.parseLong(fields[7]);
+                        r.options = fields[8];
+                        this.records.put(fields[0], r);
+                    }
+                    line = in.readLine();
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Reports whether {@code output} is still current for an input.
+     *
+     * @param input
+     *            fingerprint of the input file
+     * @param n
+     *            amount of words in the tag cloud
+     * @param options
+     *            options the tag cloud is rendered with
+     * @param output
+     *            the tag cloud file
+     * @return true if the tag cloud doesn't need to be regenerated
+     * @throws IOException
+     *             if the input can't be read
+     */
+    boolean isCurrent(Fingerprint input, int n, String options, File output)
+            throws IOException {
+        Record r = this.records.get(input.input.getAbsolutePath());
+        if (r == null || r.n != n || !r.options.equals(options)
+                || !output.isFile() || output.length() != r.outputSize
+                || output.lastModified() != r.outputMtime) {
+            return false;
+        }
+        if (input.size != r.size) {
+            return false;
+        }
+        if (input.mtime == r.mtime) {
+            return true;
+        }
+
+        //the file was touched, compare the sample and then the whole content
+        if (!input.sampleHash().equals(r.sampleHash)
+                || !input.fullHash().equals(r.fullHash)) {
+            return false;
+        }
+        r.mtime = input.mtime;
+        this.dirty = true;
+        return true;
+    }
+
+    /**
+     * Records that an input was just rendered. The fingerprint must have been
+     * taken, hashes included, before the input was read for rendering.
+     *
+     * @param input
+     *            fingerprint of the input file
+     * @param n
+     *            amount of words in the tag cloud
+     * @param options
+     *            options the tag cloud was rendered with
+     * @param output
+     *            the tag cloud file
+     * @throws IOException
+     *             if the input can't be read
+     */
+    void record(Fingerprint input, int n, String options, File output)
+            throws IOException {
+        assert input.sampleHash != null && input.fullHash != null
+                : "Violation of: input was hashed before rendering";
+        Record r = new Record();
+        r.size = input.size;
+        r.mtime = input.mtime;
+        r.sampleHash = input.sampleHash;
+        r.fullHash = input.fullHash;
+        r.n = n;
+        r.outputSize = output.length();
+        r.outputMtime = output.lastModified();
+        r.options = options;
+        this.records.put(input.input.getAbsolutePath(), r);
+        this.dirty = true;
+    }
+
+    /**
+     * Writes the manifest back to its file if it changed. The file is
+     * replaced in one step so an interrupted run can't leave it half written.
+     *
+     * @throws IOException
+     *             if the manifest can't be written
+     */
+    void save() throws IOException {
+        if (!this.dirty) {
+            return;
+        }
+        File tmp = new File(this.file.getAbsolutePath() + ".tmp");
+        PrintWriter out = new PrintWriter(
+                new BufferedWriter(new FileWriter(tmp)));
+        for (Map.Entry<String, Record> e : this.records.entrySet()) {
+            Record r = e.getValue();
+            out.println(e.getKey() + "\t" + r.size + "\t" + r.mtime + "\t"
+                    + r.sampleHash + "\t" + r.fullHash + "\t" + r.n + "\t"
+                    + r.outputSize + "\t" + r.outputMtime + "\t"
+                    + r.options);
+        }
+        out.close();
+        if (out.checkError()) {
+            throw new IOException("Error writing " + tmp);
+        }
+        Files.move(tmp.toPath(), this.file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        this.dirty = false;
+    }
+
+    /**
+     * Returns the hash of the length and of the first, middle and last chunks
+     * of {@code input}.
+     *
+     * @param input
+     *            the input file
+     * @return hex hash
+     * @throws IOException
+     *             if the input can't be read
+     */
+    private static String sampleHash(File input) throws IOException {
+        MessageDigest digest = TagCloudGeneratorSJC.newSha256();
+        byte[] buffer = new byte[CHUNK];
+        RandomAccessFile in = new RandomAccessFile(input, "r");
+        try {
+            long size = in.length();
+            digest.update(Long.toString(size).getBytes("UTF-8"));
+            long[] offsets = { 0, (size - CHUNK) / 2, size - CHUNK };
+            for (long offset : offsets) {
+                in.seek(Math.max(0, offset));
+                int read = in.read(buffer);
+                if (read > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return TagCloudGeneratorSJC.toHex(digest.digest());
+    }
+
+    /**
+     * Returns the hash of the whole content of {@code input}.
+     *
+     * @param input
+     *            the input file
+     * @return hex hash
+     * @throws IOException
+     *             if the input can't be read
+     */
+    private static String fullHash(File input) throws IOException {
+        MessageDigest digest = TagCloudGeneratorSJC.newSha256();
+        byte[] buffer = new byte[CHUNK];
+        InputStream in = new FileInputStream(input);
+        try {
+            int read = in.read(buffer);
+            while (read >= 0) {
+                digest.update(buffer, 0, read);
+                read = in.read(buffer);
+            }
+        } finally {
+            in.close();
+        }
+        return TagCloudGeneratorSJC.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,314 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Corpus Generator. Writes large synthetic text files to run the tag cloud
+ * generator on.
+ *
+ * <p>
+ * A vocabulary of distinct words is made first, some of them with letters
+ * from other scripts, then words are drawn from it with Zipf frequencies (the
+ * word of rank k is drawn in proportion to 1 / k^s) and written in lines whose
+ * lengths follow a geometric distribution. Everything is drawn from one
+ * seeded {@link Random}, so the same arguments always give the same file.
+ *
+ * @author Noah Bennett, Mark Karev
+ */
+public final class CorpusGenerator {
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private CorpusGenerator() {
+    }
+
+    /**
+     * Default amount of distinct words.
+     */
+    static final int UNIQUE = 100000;
+    /**
+     * Default seed.
+     */
+    static final long SEED = 42;
+    /**
+     * Default fraction of words with letters outside ASCII.
+     */
+    static final double UNICODE = 0.1;
+    /**
+     * Default mean amount of words in a line.
+     */
+    static final int LINE_WORDS = 10;
+    /**
+     * Default Zipf exponent.
+     */
+    static final double EXPONENT = 1.07;
+
+    /**
+     * Longest word in characters.
+     */
+    private static final int MAX_LENGTH = 12;
+    /**
+     * Fraction of lines left blank.
+     */
+    private static final double BLANK_LINES = 0.02;
+    /**
+     * Fraction of ASCII words written capitalized.
+     */
+    private static final double CAPITALIZED = 0.05;
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_CHARS = 1 << 20;
+
+    /**
+     * First and last letters of each script words outside ASCII are made
+     * from: Latin-1, Greek, Cyrillic, Hiragana, CJK and emoji.
+     */
+    private static final int[][] SCRIPTS = { { 0xe0, 0xf6 }, { 0x3b1, 0x3c9 },
+            { 0x430, 0x44f }, { 0x3041, 0x3096 }, { 0x4e00, 0x9fff },
+            { 0x1f600, 0x1f64f } };
+
+    /**
+     * Parses a size such as {@code 512K}, {@code 64M} or {@code 10G}.
+     *
+     * @param size
+     *            the size, in bytes unless it ends in K, M or G
+     * @return the size in bytes
+     */
+    static long parseSize(String size) {
+        String s = size.trim().toUpperCase();
+        long unit = 1;
+        if (s.endsWith("K")) {
+            unit = 1L << 10;
+        } else if (s.endsWith("M")) {
+            unit = 1L << 20;
+        } else if (s.endsWith("G")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return Long.parseLong(s) * unit;
+    }
+
+    /**
+     * Returns {@code count} distinct lowercase words.
+     *
+     * @param random
+     *            source of randomness
+     * @param count
+     *            amount of words
+     * @param unicode
+     *            fraction of words with letters outside ASCII
+     * @return the words
+     */
+    private static String[] vocabulary(Random random, int count,
+            double unicode) {
+        String[] words = new String[count];
+        Set<String> seen = new HashSet<String>();
+        int i = 0;
+        while (i < count) {
+            int length = 1 + Math.min(MAX_LENGTH - 1,
+                    (int) (-StrictMath.log(1 - random.nextDouble()) * 4));
+            StringBuilder word = new StringBuilder();
+            int[] script = null;
+            if (random.nextDouble() < unicode) {
+                script = SCRIPTS[random.nextInt(SCRIPTS.length)];
+            }
+            for (int j = 0; j < length; j++) {
+                if (script != null && random.nextBoolean()) {
+                    word.appendCodePoint(script[0]
+                            + random.nextInt(script[1] - script[0] + 1));
+                } else {
+                    word.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            if (seen.add(word.toString())) {
+                words[i] = word.toString();
+                i++;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Returns the cumulative Zipf distribution over {@code count} ranks.
+     *
+     * @param count
+     *            amount of ranks
+     * @param exponent
+     *            the Zipf exponent
+     * @return cdf, where {@code cdf[k]} is the chance of a rank up to k
+     */
+    private static double[] zipf(int count, double exponent) {
+        double[] cdf = new double[count];
+        double sum = 0;
+        for (int k = 0; k < count; k++) {
+            sum += 1 / StrictMath.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < count; k++) {
+            cdf[k] /= sum;
+        }
+        return cdf;
+    }
+
+    /**
+     * Draws a rank from {@code cdf}.
+     *
+     * @param random
+     *            source of randomness
+     * @param cdf
+     *            cumulative distribution
+     * @return the rank
+     */
+    private static int draw(Random random, double[] cdf) {
+        double u = random.nextDouble();
+        int lo = 0;
+        int hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the amount of UTF-8 bytes in {@code s}.
+     *
+     * @param s
+     *            the text
+     * @return amount of bytes
+     */
+    private static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a corpus of about {@code size} bytes of UTF-8 text to
+     * {@code file}.
+     *
+     * @param file
+     *            the output file
+     * @param size
+     *            amount of bytes to write; the last line may go past it
+     * @param unique
+     *            amount of distinct words
+     * @param seed
+     *            seed of the corpus
+     * @param unicode
+     *            fraction of words with letters outside ASCII
+     * @param lineWords
+     *            mean amount of words in a line
+     * @param exponent
+     *            the Zipf exponent
+     * @throws IOException
+     *             if the file can't be written
+     */
+    static void generate(String file, long size, int unique, long seed,
+            double unicode, int lineWords, double exponent)
+            throws IOException {
+        assert unique > 0 : "Violation of: unique > 0";
+        assert lineWords > 0 : "Violation of: lineWords > 0";
+
+        Random random = new Random(seed);
+        String[] words = vocabulary(random, unique, unicode);
+        int[] lengths = new int[unique];
+        for (int i = 0; i < unique; i++) {
+            lengths[i] = utf8Length(words[i]);
+        }
+        double[] cdf = zipf(unique, exponent);
+        double endLine = 1.0 / lineWords;
+
+        //write lines of drawn words until the corpus is big enough
+        Writer out = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), "UTF-8"),
+                BUFFER_CHARS);
+        try {
+            long written = 0;
+            while (written < size) {
+                if (random.nextDouble() >= BLANK_LINES) {
+                    boolean more = true;
+                    boolean firstWord = true;
+                    while (more) {
+                        if (!firstWord) {
+                            double p = random.nextDouble();
+                            String separator = p < 0.05 ? ". "
+                                    : p < 0.15 ? ", " : " ";
+                            out.write(separator);
+                            written += separator.length();
+                        }
+                        int k = draw(random, cdf);
+                        String word = words[k];
+                        char c = word.charAt(0);
+                        if (c <= 'z' && random.nextDouble() < CAPITALIZED) {
+                            out.write(Character.toUpperCase(c));
+                            out.write(word, 1, word.length() - 1);
+                        } else {
+                            out.write(word);
+                        }
+                        written += lengths[k];
+                        firstWord = false;
+                        more = random.nextDouble() >= endLine;
+                    }
+                }
+                out.write('\n');
+                written++;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the output file, its size in bytes (or with a K, M or G
+     *            suffix), and optionally the amount of distinct words, the
+     *            seed, the fraction of words outside ASCII, the mean amount
+     *            of words in a line and the Zipf exponent
+     * @throws IOException
+     *             if the file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CorpusGenerator <output> <size>"
+                    + " [unique] [seed] [unicode] [lineWords] [exponent]");
+            return;
+        }
+        int unique = args.length > 2 ? Integer.parseInt(args[2]) : UNIQUE;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : SEED;
+        double unicode = args.length > 4 ? Double.parseDouble(args[4])
+                : UNICODE;
+        int lineWords = args.length > 5 ? Integer.parseInt(args[5])
+                : LINE_WORDS;
+        double exponent = args.length > 6 ? Double.parseDouble(args[6])
+                : EXPONENT;
+        generate(args[0], parseSize(args[1]), unique, seed, unicode,
+                lineWords, exponent);
+    }
+}
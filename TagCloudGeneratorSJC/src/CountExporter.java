@@ -0,0 +1,444 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Count Exporter. Streams words and their counts out as JSON or CSV instead of
+ * a tag cloud.
+ *
+ * <p>
+ * Words are written one at a time straight from the count table into a
+ * reused byte buffer, escaping their UTF-8 bytes on the way, so
+ * nothing is made per word and a whole vocabulary can be dumped at the speed
+ * of the output. JSON is written as an array of
+ * {@code {"word":..., "count":...}} objects, one per line, and CSV as a
+ * {@code word,count} header followed by one row per word.
+ *
+ * @author Noah Bennett, Mark Karev
+ */
+public final class CountExporter implements Closeable {
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_BYTES = 1 << 16;
+    /**
+     * Most bytes one escaped character can take.
+     */
+    private static final int MAX_CHAR_BYTES = 6;
+    /**
+     * Hex digits for escaping control characters.
+     */
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    /**
+     * The output stream.
+     */
+    private final OutputStream out;
+    /**
+     * The stream {@code out} writes to in the end, closed on its own when an
+     * export fails so that no compressed trailer is written.
+     */
+    private final OutputStream raw;
+    /**
+     * Whether to write JSON rather than CSV.
+     */
+    private final boolean json;
+    /**
+     * Bytes waiting to be written.
+     */
+    private final byte[] buffer = new byte[BUFFER_BYTES];
+    /**
+     * Amount of bytes waiting in {@code buffer}.
+     */
+    private int used = 0;
+    /**
+     * Bytes of the word being written, for words kept off the heap.
+     */
+    private byte[] word = new byte[256];
+    /**
+     * Whether no word has been written yet.
+     */
+    private boolean first = true;
+    /**
+     * Whether the CSV field of the current row is quoted.
+     */
+    private boolean quoted = false;
+
+    /**
+     * Constructor. Writes the opening of the output.
+     *
+     * @param out
+     *            output stream
+     * @param json
+     *            whether to write JSON rather than CSV
+     * @throws IOException
+     *             if the output can't be written
+     */
+    CountExporter(OutputStream out, boolean json) throws IOException {
+        this(out, out, json);
+    }
+
+    /**
+     * Constructor. Writes the opening of the output.
+     *
+     * @param out
+     *            output stream
+     * @param raw
+     *            the stream {@code out} writes to in the end
+     * @param json
+     *            whether to write JSON rather than CSV
+     * @throws IOException
+     *             if the output can't be written
+     */
+    private CountExporter(OutputStream out, OutputStream raw, boolean json)
+            throws IOException {
+        this.out = out;
+        this.raw = raw;
+        this.json = json;
+        this.ascii(json ? "[" : "word,count\n");
+    }
+
+    /**
+     * Opens {@code outFile} for export, picking JSON or CSV by its extension
+     * and compressing it if it ends in {@code .gz}.
+     *
+     * @param outFile
+     *            the output file
+     * @return the exporter
+     * @throws IOException
+     *             if the file can't be opened
+     * @throws IllegalArgumentException
+     *             if {@code outFile} doesn't end in .json or .csv, optionally
+     *             followed by .gz
+     */
+    static CountExporter open(String outFile) throws IOException {
+        if (!isSupported(outFile)) {
+            throw new IllegalArgumentException(
+                    "Unknown export format: " + outFile);
+        }
+        OutputStream raw = new FileOutputStream(outFile);
+        OutputStream out;
+        if (outFile.toLowerCase(Locale.ROOT).endsWith(".gz")) {
+            out = new GZIPOutputStream(raw, BUFFER_BYTES);
+        } else {
+            out = new BufferedOutputStream(raw, BUFFER_BYTES);
+        }
+        return new CountExporter(out, raw,
+                formatName(outFile).endsWith(".json"));
+    }
+
+    /**
+     * Reports whether {@code outFile} ends in {@code .json} or {@code .csv},
+     * optionally followed by {@code .gz}.
+     *
+     * @param outFile
+     *            the output file
+     * @return true if its format is known
+     */
+    static boolean isSupported(String outFile) {
+        String name = formatName(outFile);
+        return name.endsWith(".json") || name.endsWith(".csv");
+    }
+
+    /**
+     * Returns {@code outFile} in lower case without its {@code .gz}
+     * extension, if it has one.
+     *
+     * @param outFile
+     *            the output file
+     * @return the name that picks the format
+     */
+    private static String formatName(String outFile) {
+        String name = outFile.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - ".gz".length());
+        }
+        return name;
+    }
+
+    /**
+     * Writes one word kept off the heap and its count, copying its bytes from
+     * the vocabulary.
+     *
+     * @param words
+     *            the vocabulary
+     * @param slot
+     *            slot of the word
+     * @throws IOException
+     *             if the output can't be written
+     */
+    void write(OffHeapVocabulary words, int slot) throws IOException {
+        int length = words.wordLength(slot);
+        if (this.word.length < length) {
+            this.word = new byte[Math.max(length, 2 * this.word.length)];
+        }
+        words.copyWord(slot, this.word);
+        boolean quote = false;
+        for (int i = 0; i < length && !quote; i++) {
+            quote = isCsvSpecial(this.word[i]);
+        }
+        this.beginRow(quote);
+        for (int i = 0; i < length; i++) {
+            this.reserve(MAX_CHAR_BYTES);
+            this.escaped(this.word[i]);
+        }
+        this.endRow(words.count(slot));
+    }
+
+    /**
+     * Writes the closing of the output and closes the stream.
+     *
+     * @throws IOException
+     *             if the output can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.json) {
+            this.ascii(this.first ? "]\n" : "\n]\n");
+        }
+        this.flush();
+        this.out.close();
+    }
+
+    /**
+     * Closes the output after a failed export without writing its closing,
+     * so a truncated export is never mistaken for a whole one. An error
+     * closing the stream is added to {@code cause} as suppressed.
+     *
+     * @param cause
+     *            the error that ended the export
+     */
+    void abort(Throwable cause) {
+        try {
+            this.raw.close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Writes every word in {@code words}, or the top {@code n} if {@code n}
+     * is positive, to {@code outFile}.
+     *
+     * @param words
+     *            the vocabulary
+     * @param n
+     *            amount of words, or 0 for all of them
+     * @param outFile
+     *            the output file
+     * @throws IOException
+     *             if the output can't be written
+     */
+    static void export(OffHeapVocabulary words, int n, String outFile)
+            throws IOException {
+        CountExporter exporter = open(outFile);
+        try {
+            if (n > 0) {
+                for (int slot : words.top(n)) {
+                    exporter.write(words, slot);
+                }
+            } else {
+                int slot = words.nextSlot(0);
+                while (slot >= 0) {
+                    exporter.write(words, slot);
+                    slot = words.nextSlot(slot + 1);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            exporter.abort(e);
+            throw e;
+        }
+        exporter.close();
+    }
+
+    /**
+     * Starts a row, writing the separator from the previous row and the
+     * opening of the word.
+     *
+     * @param quote
+     *            whether the CSV field needs quotes
+     * @throws IOException
+     *             if the output can't be written
+     */
+    private void beginRow(boolean quote) throws IOException {
+        if (this.json) {
+            this.ascii(this.first ? "\n{\"word\":\"" : ",\n{\"word\":\"");
+        } else if (quote) {
+            this.ascii("\"");
+        }
+        this.quoted = quote;
+        this.first = false;
+    }
+
+    /**
+     * Ends a row, writing the closing of the word and the count.
+     *
+     * @param count
+     *            the count
+     * @throws IOException
+     *             if the output can't be written
+     */
+    private void endRow(int count) throws IOException {
+        if (this.json) {
+            this.ascii("\",\"count\":");
+        } else {
+            this.ascii(this.quoted ? "\"," : ",");
+        }
+        this.number(count);
+        this.ascii(this.json ? "}" : "\n");
+    }
+
+    /**
+     * Adds one byte of UTF-8, escaping it for the output format. Multi-byte
+     * characters never need escaping since all their bytes are 0x80 or above.
+     * There must be room for {@code MAX_CHAR_BYTES} in the buffer.
+     *
+     * @param b
+     *            the byte
+     */
+    private void escaped(byte b) {
+        if (this.json) {
+            if (b == '"' || b == '\\') {
+                this.buffer[this.used++] = '\\';
+                this.buffer[this.used++] = b;
+            } else if (b >= 0 && b < 0x20) {
+                this.buffer[this.used++] = '\\';
+                this.buffer[this.used++] = 'u';
+                this.buffer[this.used++] = '0';
+                this.buffer[this.used++] = '0';
+                this.buffer[this.used++] = HEX[b >> 4];
+                this.buffer[this.used++] = HEX[b & 0xf];
+            } else {
+                this.buffer[this.used++] = b;
+            }
+        } else if (b == '"') {
+            this.buffer[this.used++] = '"';
+            this.buffer[this.used++] = '"';
+        } else {
+            this.buffer[this.used++] = b;
+        }
+    }
+
+    /**
+     * Reports whether {@code b} makes a CSV field need quotes.
+     *
+     * @param b
+     *            the byte
+     * @return true if it is a comma, quote or line break
+     */
+    private static boolean isCsvSpecial(byte b) {
+        return b == ',' || b == '"' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Adds the decimal digits of {@code value}.
+     *
+     * @param value
+     *            a non-negative number
+     * @throws IOException
+     *             if the output can't be written
+     */
+    private void number(int value) throws IOException {
+        this.reserve(10);
+        int start = this.used;
+        int v = value;
+        do {
+            this.buffer[this.used++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+
+        //the digits were added backwards, reverse them
+        for (int i = start, j = this.used - 1; i < j; i++, j--) {
+            byte t = this.buffer[i];
+            this.buffer[i] = this.buffer[j];
+            this.buffer[j] = t;
+        }
+    }
+
+    /**
+     * Adds ASCII text.
+     *
+     * @param s
+     *            the text
+     * @throws IOException
+     *             if the output can't be written
+     */
+    private void ascii(String s) throws IOException {
+        this.reserve(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            this.buffer[this.used++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Makes room for {@code bytes} more bytes in the buffer.
+     *
+     * @param bytes
+     *            amount of bytes needed
+     * @throws IOException
+     *             if the output can't be written
+     */
+    private void reserve(int bytes) throws IOException {
+        if (this.used + bytes > this.buffer.length) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the output stream.
+     *
+     * @throws IOException
+     *             if the output can't be written
+     */
+    private void flush() throws IOException {
+        this.out.write(this.buffer, 0, this.used);
+        this.used = 0;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the input file, the output file ending in .json or .csv,
+     *            optionally followed by .gz, and optionally the amount of
+     *            words; all words are written if it is omitted
+     * @throws IOException
+     *             if the input can't be read or the output can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CountExporter <input>"
+                    + " <output.json|output.csv>[.gz] [n]");
+            return;
+        }
+        if (!isSupported(args[1])) {
+            System.err.println("Error: the output file must end in .json or"
+                    + " .csv, optionally followed by .gz");
+            return;
+        }
+        int n = 0;
+        if (args.length > 2) {
+            try {
+                n = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                System.err.println("Error: Number is in the wrong format");
+                return;
+            }
+            if (n < 0) {
+                System.out.println("Error: Value of 0 or more required");
+                return;
+            }
+        }
+        OffHeapVocabulary words = OffHeapVocabulary.countWords(args[0]);
+        try {
+            export(words, n, args[1]);
+        } finally {
+            words.close();
+        }
+    }
+}
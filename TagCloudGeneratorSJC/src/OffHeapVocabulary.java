@@ -0,0 +1,718 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Vocabulary of words and their counts kept outside the Java heap.
+ *
+ * <p>
+ * The UTF-8 bytes of every word are appended to direct {@link ByteBuffer}
+ * arenas, each word preceded by its length, and words are referenced by arena
+ * and offset. The open addressing hash table that maps words to their counts
+ * lives in direct buffers as well, so no {@code String}, {@code Integer} or
+ * map node is made per word and the heap stays flat as the vocabulary grows.
+ * Words are compared in place with the same order as {@code String}, and are
+ * copied straight from the arenas when they are written out, so they never
+ * become Java objects.
+ *
+ * <p>
+ * Direct buffers count against the JVM's direct memory limit, which defaults
+ * to the maximum heap size ({@code -Xmx}); a large vocabulary with a small
+ * heap may need a bigger {@code -XX:MaxDirectMemorySize}. Their memory is
+ * only given back once the garbage collector collects the buffers, after
+ * {@link #close()} or after the table grows, not when they are dropped.
+ *
+ * <p>
+ * Each slot of the table holds the word's reference plus one (so that zero
+ * means empty), its hash and its count. Slots are numbered with an
+ * {@code int} and the table is kept at most half full, so it holds up to
+ * {@link #MAX_WORDS} (2^29) distinct words.
+ *
+ * @author Noah Bennett, Mark Karev
+ */
+final class OffHeapVocabulary implements Closeable {
+
+    /**
+     * Bytes in each arena.
+     */
+    private static final int ARENA_BYTES = 1 << 24;
+    /**
+     * Bytes in each slot of the table.
+     */
+    private static final int SLOT_BYTES = 16;
+    /**
+     * Log of the amount of slots in each page of the table.
+     */
+    private static final int PAGE_SHIFT = 20;
+    /**
+     * Amount of slots in each page of the table.
+     */
+    private static final int PAGE_SLOTS = 1 << PAGE_SHIFT;
+    /**
+     * Largest amount of slots, the largest power of two an {@code int} holds.
+     */
+    private static final int MAX_SLOTS = 1 << 30;
+    /**
+     * Largest amount of distinct words, keeping the table at most half full.
+     */
+    static final int MAX_WORDS = MAX_SLOTS / 2;
+    /**
+     * Amount of slots the table starts with.
+     */
+    private static final int INITIAL_SLOTS = 1 << 12;
+    /**
+     * Offset of the hash in a slot.
+     */
+    private static final int HASH = 8;
+    /**
+     * Offset of the count in a slot.
+     */
+    private static final int COUNT = 12;
+
+    /**
+     * Arenas holding the length and bytes of every word.
+     */
+    private final List<ByteBuffer> arenas = new ArrayList<ByteBuffer>();
+    /**
+     * Arena words are currently appended to.
+     */
+    private ByteBuffer arena;
+    /**
+     * Pages of the hash table.
+     */
+    private ByteBuffer[] pages;
+    /**
+     * Amount of slots in the table, a power of two.
+     */
+    private int slots;
+    /**
+     * Amount of distinct words.
+     */
+    private int size = 0;
+    /**
+     * Whether each character is a separator.
+     */
+    private final boolean[] isSeparator = new boolean[Character.MAX_VALUE
+            + 1];
+    /**
+     * Bytes of the word being counted.
+     */
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Constructor.
+     */
+    OffHeapVocabulary() {
+        Set<Character> separators = TagCloudGeneratorSJC.separatorSet();
+        for (char c : separators) {
+            this.isSeparator[c] = true;
+        }
+        this.pages = newPages(INITIAL_SLOTS);
+        this.slots = INITIAL_SLOTS;
+        this.arena = ByteBuffer.allocateDirect(ARENA_BYTES);
+        this.arenas.add(this.arena);
+    }
+
+    /**
+     * Returns a vocabulary of the words in {@code file}.
+     *
+     * @param file
+     *            The file which is to be read for all of the words and their
+     *            counts.
+     * @return the vocabulary
+     * @throws IOException
+     *             if the file can't be read
+     */
+    static OffHeapVocabulary countWords(String file) throws IOException {
+        assert file.length() > 0 : "Violation of file is not empty";
+
+        OffHeapVocabulary vocabulary = new OffHeapVocabulary();
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file)));
+        try {
+            String line = in.readLine();
+            while (line != null) {
+                vocabulary.addLine(line);
+                line = in.readLine();
+            }
+        } finally {
+            in.close();
+        }
+        return vocabulary;
+    }
+
+    /**
+     * Counts every word of a single line of text.
+     *
+     * @param line
+     *            the line of text to be counted
+     * @throws IllegalStateException
+     *             if the line would take the vocabulary past
+     *             {@link #MAX_WORDS} distinct words
+     */
+    void addLine(String line) {
+        String lower = line.toLowerCase();
+        int length = 0;
+        int hash = 0;
+        int i = 0;
+        while (i <= lower.length()) {
+            if (i == lower.length() || this.isSeparator[lower.charAt(i)]) {
+                if (length > 0) {
+                    this.increment(length, hash);
+                    length = 0;
+                }
+                hash = 0;
+                i++;
+            } else {
+                //encode the next character as UTF-8 into the scratch bytes
+                int cp = lower.codePointAt(i);
+                if (Character.isSurrogate(lower.charAt(i))
+                        && Character.charCount(cp) == 1) {
+                    cp = '?';
+                }
+                i += Character.charCount(cp);
+                if (length + 4 > this.scratch.length) {
+                    this.scratch = Arrays.copyOf(this.scratch,
+                            this.scratch.length * 2);
+                }
+                int start = length;
+                if (cp < 0x80) {
+                    this.scratch[length++] = (byte) cp;
+                } else if (cp < 0x800) {
+                    this.scratch[length++] = (byte) (0xc0 | (cp >> 6));
+                    this.scratch[length++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (cp < 0x10000) {
+                    this.scratch[length++] = (byte) (0xe0 | (cp >> 12));
+                    this.scratch[length++] = (byte) (0x80
+                            | ((cp >> 6) & 0x3f));
+                    this.scratch[length++] = (byte) (0x80 | (cp & 0x3f));
+                } else {
+                    this.scratch[length++] = (byte) (0xf0 | (cp >> 18));
+                    this.scratch[length++] = (byte) (0x80
+                            | ((cp >> 12) & 0x3f));
+                    this.scratch[length++] = (byte) (0x80
+                            | ((cp >> 6) & 0x3f));
+                    this.scratch[length++] = (byte) (0x80 | (cp & 0x3f));
+                }
+                for (int j = start; j < length; j++) {
+                    hash = 31 * hash + this.scratch[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of distinct words.
+     *
+     * @return the amount of words
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the first slot at or after {@code from} that holds a word, so
+     * every word can be visited without making anything per word.
+     *
+     * @param from
+     *            slot to start looking at
+     * @return the slot, or -1 if there are no more words
+     */
+    int nextSlot(int from) {
+        for (int s = from; s < this.slots; s++) {
+            if (this.ref(s) != 0) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the count of the word in {@code slot}.
+     *
+     * @param slot
+     *            a slot holding a word
+     * @return its count
+     */
+    int count(int slot) {
+        return this.page(slot).getInt(offset(slot) + COUNT);
+    }
+
+    /**
+     * Writes the UTF-8 bytes of the word in {@code slot} to {@code out},
+     * copying them straight from its arena.
+     *
+     * @param slot
+     *            a slot holding a word
+     * @param out
+     *            output stream
+     * @param buffer
+     *            buffer to copy through
+     * @throws IOException
+     *             if the word can't be written
+     */
+    void writeWord(int slot, OutputStream out, byte[] buffer)
+            throws IOException {
+        ByteBuffer a = this.wordArena(slot).duplicate();
+        int at = wordOffset(this.ref(slot));
+        int remaining = a.getInt(at);
+        a.position(at + 4);
+        while (remaining > 0) {
+            int chunk = Math.min(remaining, buffer.length);
+            a.get(buffer, 0, chunk);
+            out.write(buffer, 0, chunk);
+            remaining -= chunk;
+        }
+    }
+
+    /**
+     * Returns the length in bytes of the word in {@code slot}.
+     *
+     * @param slot
+     *            a slot holding a word
+     * @return the length
+     */
+    int wordLength(int slot) {
+        return this.wordArena(slot).getInt(wordOffset(this.ref(slot)));
+    }
+
+    /**
+     * Copies the UTF-8 bytes of the word in {@code slot} into {@code into}.
+     *
+     * @param slot
+     *            a slot holding a word
+     * @param into
+     *            buffer at least {@link #wordLength(int)} bytes long
+     * @return the length of the word
+     */
+    int copyWord(int slot, byte[] into) {
+        ByteBuffer a = this.wordArena(slot).duplicate();
+        int at = wordOffset(this.ref(slot));
+        int length = a.getInt(at);
+        a.position(at + 4);
+        a.get(into, 0, length);
+        return length;
+    }
+
+    /**
+     * Returns the slots of the top {@code n} words sorted by decreasing count,
+     * ties broken alphabetically like {@code IntOrder}. The words are picked
+     * with a heap of slot numbers, so nothing is made per word.
+     *
+     * @param n
+     *            the number of words wanted
+     * @return at most {@code n} slots
+     */
+    int[] top(int n) {
+        assert n > 0 : "Violation of: n > 0";
+
+        //keep a heap of the best n slots with the worst at the root
+        int[] heap = new int[Math.min(n, this.size)];
+        int count = 0;
+        for (int s = 0; s < this.slots; s++) {
+            if (this.ref(s) != 0) {
+                if (count < heap.length) {
+                    heap[count] = s;
+                    count++;
+                    this.siftUp(heap, count - 1);
+                } else if (this.intOrder(s, heap[0]) < 0) {
+                    heap[0] = s;
+                    this.siftDown(heap, count, 0);
+                }
+            }
+        }
+
+        //repeatedly move the worst slot to the back
+        for (int end = count - 1; end > 0; end--) {
+            int t = heap[0];
+            heap[0] = heap[end];
+            heap[end] = t;
+            this.siftDown(heap, end, 0);
+        }
+        return heap;
+    }
+
+    /**
+     * Sorts {@code slots} alphabetically like {@code StrOrder}, comparing the
+     * words in place.
+     *
+     * @param slotList
+     *            slots holding words
+     * @updates slotList
+     */
+    void sortByWord(int[] slotList) {
+        Integer[] boxed = new Integer[slotList.length];
+        for (int i = 0; i < slotList.length; i++) {
+            boxed[i] = slotList[i];
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return OffHeapVocabulary.this.compareWords(o1, o2);
+            }
+        });
+        for (int i = 0; i < slotList.length; i++) {
+            slotList[i] = boxed[i];
+        }
+    }
+
+    /**
+     * Drops the references to the arenas and the table. This does not free
+     * their memory: it is released when the garbage collector collects the
+     * buffers, so calling {@code close()} only makes that possible sooner.
+     */
+    @Override
+    public void close() {
+        this.arenas.clear();
+        this.arena = null;
+        this.pages = null;
+        this.slots = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Increments the count of the word in the scratch bytes, adding it if it
+     * is new.
+     *
+     * @param length
+     *            length of the word in bytes
+     * @param hash
+     *            hash of the word
+     */
+    private void increment(int length, int hash) {
+        int mask = this.slots - 1;
+        int s = mix(hash) & mask;
+        long ref = this.ref(s);
+        while (ref != 0) {
+            ByteBuffer p = this.page(s);
+            if (p.getInt(offset(s) + HASH) == hash
+                    && this.equalsScratch(ref, length)) {
+                p.putInt(offset(s) + COUNT, p.getInt(offset(s) + COUNT) + 1);
+                return;
+            }
+            s = (s + 1) & mask;
+            ref = this.ref(s);
+        }
+
+        //the word is new, append it to an arena and fill the empty slot
+        if (this.size == MAX_WORDS) {
+            throw new IllegalStateException("Vocabulary holds more than "
+                    + MAX_WORDS + " distinct words");
+        }
+        ByteBuffer p = this.page(s);
+        p.putLong(offset(s), this.append(length) + 1);
+        p.putInt(offset(s) + HASH, hash);
+        p.putInt(offset(s) + COUNT, 1);
+        this.size++;
+        if (2 * this.size > this.slots && this.slots < MAX_SLOTS) {
+            this.grow();
+        }
+    }
+
+    /**
+     * Appends the scratch bytes to an arena.
+     *
+     * @param length
+     *            length of the word in bytes
+     * @return reference to the word
+     */
+    private long append(int length) {
+        if (this.arena.remaining() < length + 4) {
+            this.arena = ByteBuffer
+                    .allocateDirect(Math.max(ARENA_BYTES, length + 4));
+            this.arenas.add(this.arena);
+        }
+        long ref = ((long) (this.arenas.size() - 1) << 32)
+                | this.arena.position();
+        this.arena.putInt(length);
+        this.arena.put(this.scratch, 0, length);
+        return ref;
+    }
+
+    /**
+     * Doubles the amount of slots and reinserts every word.
+     */
+    private void grow() {
+        ByteBuffer[] old = this.pages;
+        int oldSlots = this.slots;
+        this.slots = oldSlots * 2;
+        this.pages = newPages(this.slots);
+        int mask = this.slots - 1;
+        for (int s = 0; s < oldSlots; s++) {
+            ByteBuffer from = old[s >>> PAGE_SHIFT];
+            int at = offset(s);
+            long ref = from.getLong(at);
+            if (ref != 0) {
+                int hash = from.getInt(at + HASH);
+                int t = mix(hash) & mask;
+                while (this.ref(t) != 0) {
+                    t = (t + 1) & mask;
+                }
+                ByteBuffer to = this.page(t);
+                to.putLong(offset(t), ref);
+                to.putInt(offset(t) + HASH, hash);
+                to.putInt(offset(t) + COUNT, from.getInt(at + COUNT));
+            }
+        }
+    }
+
+    /**
+     * Reports whether the word at {@code ref} equals the scratch bytes.
+     *
+     * @param ref
+     *            reference to a word plus one
+     * @param length
+     *            length of the scratch word
+     * @return true if they are equal
+     */
+    private boolean equalsScratch(long ref, int length) {
+        ByteBuffer a = this.arenas.get((int) ((ref - 1) >>> 32));
+        int at = wordOffset(ref);
+        if (a.getInt(at) != length) {
+            return false;
+        }
+        for (int j = 0; j < length; j++) {
+            if (a.get(at + 4 + j) != this.scratch[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two words like {@code String.compareTo}, which orders by UTF-16
+     * code units. UTF-8 bytes order by code point, which only differs for
+     * characters above U+FFFF against U+E000-U+FFFF, so the first differing
+     * characters are decoded and compared as UTF-16.
+     *
+     * @param s1
+     *            slot of the first word
+     * @param s2
+     *            slot of the second word
+     * @return negative, zero or positive
+     */
+    private int compareWords(int s1, int s2) {
+        ByteBuffer a1 = this.wordArena(s1);
+        ByteBuffer a2 = this.wordArena(s2);
+        int at1 = wordOffset(this.ref(s1)) + 4;
+        int at2 = wordOffset(this.ref(s2)) + 4;
+        int len1 = a1.getInt(at1 - 4);
+        int len2 = a2.getInt(at2 - 4);
+        int min = Math.min(len1, len2);
+        int j = 0;
+        while (j < min && a1.get(at1 + j) == a2.get(at2 + j)) {
+            j++;
+        }
+        if (j == min) {
+            return len1 - len2;
+        }
+
+        //back up to the start of the character that differs
+        while (j > 0 && (a1.get(at1 + j) & 0xc0) == 0x80) {
+            j--;
+        }
+        return utf16Key(decode(a1, at1 + j)) - utf16Key(decode(a2, at2 + j));
+    }
+
+    /**
+     * Returns a key for {@code cp} that orders code points like their UTF-16
+     * code units: supplementary characters sort with their high surrogate.
+     *
+     * @param cp
+     *            a code point
+     * @return the key
+     */
+    private static int utf16Key(int cp) {
+        if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            return cp << 10;
+        }
+        return (Character.highSurrogate(cp) << 10)
+                | (Character.lowSurrogate(cp) - Character.MIN_LOW_SURROGATE);
+    }
+
+    /**
+     * Decodes the UTF-8 character starting at {@code at}.
+     *
+     * @param a
+     *            the arena
+     * @param at
+     *            offset of the first byte
+     * @return the code point
+     */
+    private static int decode(ByteBuffer a, int at) {
+        int b = a.get(at) & 0xff;
+        if (b < 0x80) {
+            return b;
+        } else if (b < 0xe0) {
+            return ((b & 0x1f) << 6) | (a.get(at + 1) & 0x3f);
+        } else if (b < 0xf0) {
+            return ((b & 0x0f) << 12) | ((a.get(at + 1) & 0x3f) << 6)
+                    | (a.get(at + 2) & 0x3f);
+        }
+        return ((b & 0x07) << 18) | ((a.get(at + 1) & 0x3f) << 12)
+                | ((a.get(at + 2) & 0x3f) << 6) | (a.get(at + 3) & 0x3f);
+    }
+
+    /**
+     * Compares two slots like {@code IntOrder}.
+     *
+     * @param s1
+     *            slot of the first word
+     * @param s2
+     *            slot of the second word
+     * @return negative if the first word comes first
+     */
+    private int intOrder(int s1, int s2) {
+        int c1 = this.count(s1);
+        int c2 = this.count(s2);
+        if (c1 != c2) {
+            return c1 > c2 ? -1 : 1;
+        }
+        return this.compareWords(s1, s2);
+    }
+
+    /**
+     * Moves {@code heap[i]} up until its parent comes before it.
+     *
+     * @param heap
+     *            heap with the last word in {@code IntOrder} at the root
+     * @param i
+     *            index to move
+     */
+    private void siftUp(int[] heap, int i) {
+        int k = i;
+        while (k > 0 && this.intOrder(heap[(k - 1) / 2], heap[k]) < 0) {
+            int parent = (k - 1) / 2;
+            int t = heap[parent];
+            heap[parent] = heap[k];
+            heap[k] = t;
+            k = parent;
+        }
+    }
+
+    /**
+     * Moves {@code heap[i]} down until both children come before it.
+     *
+     * @param heap
+     *            heap with the last word in {@code IntOrder} at the root
+     * @param count
+     *            amount of slots in the heap
+     * @param i
+     *            index to move
+     */
+    private void siftDown(int[] heap, int count, int i) {
+        int k = i;
+        boolean done = false;
+        while (!done) {
+            int worst = k;
+            int l = 2 * k + 1;
+            int r = l + 1;
+            if (l < count && this.intOrder(heap[l], heap[worst]) > 0) {
+                worst = l;
+            }
+            if (r < count && this.intOrder(heap[r], heap[worst]) > 0) {
+                worst = r;
+            }
+            if (worst == k) {
+                done = true;
+            } else {
+                int t = heap[worst];
+                heap[worst] = heap[k];
+                heap[k] = t;
+                k = worst;
+            }
+        }
+    }
+
+    /**
+     * Returns the reference plus one stored in {@code slot}, or 0 if empty.
+     *
+     * @param slot
+     *            the slot
+     * @return the reference
+     */
+    private long ref(int slot) {
+        return this.page(slot).getLong(offset(slot));
+    }
+
+    /**
+     * Returns the page holding {@code slot}.
+     *
+     * @param slot
+     *            the slot
+     * @return the page
+     */
+    private ByteBuffer page(int slot) {
+        return this.pages[slot >>> PAGE_SHIFT];
+    }
+
+    /**
+     * Returns the arena holding the word in {@code slot}.
+     *
+     * @param slot
+     *            a slot holding a word
+     * @return the arena
+     */
+    private ByteBuffer wordArena(int slot) {
+        return this.arenas.get((int) ((this.ref(slot) - 1) >>> 32));
+    }
+
+    /**
+     * Returns the offset of {@code slot} inside its page.
+     *
+     * @param slot
+     *            the slot
+     * @return byte offset
+     */
+    private static int offset(int slot) {
+        return (slot & (PAGE_SLOTS - 1)) * SLOT_BYTES;
+    }
+
+    /**
+     * Returns the offset of a word inside its arena.
+     *
+     * @param ref
+     *            reference to the word plus one
+     * @return byte offset
+     */
+    private static int wordOffset(long ref) {
+        return (int) (ref - 1);
+    }
+
+    /**
+     * Spreads the bits of {@code hash} so that similar words don't cluster.
+     *
+     * @param hash
+     *            the hash
+     * @return the mixed hash
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns zeroed pages for {@code count} slots.
+     *
+     * @param count
+     *            amount of slots, a power of two
+     * @return the pages
+     */
+    private static ByteBuffer[] newPages(int count) {
+        int pageSlots = Math.min(count, PAGE_SLOTS);
+        ByteBuffer[] pages = new ByteBuffer[count / pageSlots];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = ByteBuffer.allocateDirect(pageSlots * SLOT_BYTES);
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,680 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Regression Gate. Runs the whole {@code printAll} pipeline on a generated
+ * corpus and compares its output with a committed reference and its
+ * performance with a baseline recorded on this machine.
+ *
+ * <p>
+ * The corpus is made by {@link CorpusGenerator} from fixed arguments, so the
+ * tag cloud must match the reference exactly; the header names the corpus
+ * file, so only the lines from the tag box on are compared. The gate fails
+ * when the throughput drops, or the bytes allocated per megabyte of input or
+ * the peak resident memory grow, by more than the threshold, or when a
+ * measurement is missing from the baseline.
+ *
+ * <p>
+ * The corpus is made in its own step with {@code --generate}, so the timed
+ * runs don't share a JVM with the generator. The pipeline is then run a few
+ * times untimed to warm up the JIT, and the median of the timed runs is
+ * compared. Peak resident memory is measured in a new JVM for each run, so it
+ * isn't hidden by the heap an earlier run left behind.
+ *
+ * <p>
+ * The reference only holds the output hash and is only changed with
+ * {@code --rereference}. Performance depends on the machine, so
+ * {@code --update} records it in a local file that isn't committed, and
+ * refuses to when the output differs from the reference.
+ * {@code --output-only} checks the output alone.
+ *
+ * @author Noah Bennett, Mark Karev
+ */
+public final class RegressionGate {
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private RegressionGate() {
+    }
+
+    /**
+     * Default reference file, holding the expected output.
+     */
+    private static final String REFERENCE = "data/perf-baseline.properties";
+    /**
+     * Default local baseline file, holding this machine's performance.
+     */
+    private static final String LOCAL = "data/perf-local.properties";
+    /**
+     * Default corpus size.
+     */
+    private static final String SIZE = "64M";
+    /**
+     * Default amount of words in the tag cloud.
+     */
+    private static final int N = 100;
+    /**
+     * Default allowed regression in percent.
+     */
+    private static final double THRESHOLD = 10;
+    /**
+     * Untimed runs before the timed ones.
+     */
+    private static final int WARMUPS = 2;
+    /**
+     * Times the pipeline is run and measured.
+     */
+    private static final int RUNS = 5;
+    /**
+     * Times the pipeline is run in a new JVM to measure peak memory.
+     */
+    private static final int RSS_RUNS = 3;
+    /**
+     * Option that makes this class measure one run's peak memory and print
+     * it, used for the child JVMs.
+     */
+    private static final String MEASURE_RSS = "--measure-rss";
+    /**
+     * Bytes in a megabyte.
+     */
+    private static final double MB = 1024.0 * 1024.0;
+    /**
+     * First line of the output that is compared.
+     */
+    private static final String CBOX = "<p class=\"cbox\">";
+
+    /**
+     * Measurements of one run of the pipeline.
+     */
+    private static final class Run {
+        /**
+         * Megabytes of input per second.
+         */
+        private double throughput;
+        /**
+         * Bytes allocated per megabyte of input.
+         */
+        private double allocPerMb;
+        /**
+         * Hash of the compared part of the output.
+         */
+        private String hash;
+    }
+
+    /**
+     * Runs {@code printAll} on {@code corpus} once and measures it.
+     *
+     * @param corpus
+     *            the corpus file
+     * @param n
+     *            amount of words in the tag cloud
+     * @param output
+     *            the tag cloud file
+     * @return the measurements
+     * @throws IOException
+     *             if the tag cloud can't be written or read back
+     */
+    private static Run run(File corpus, int n, File output)
+            throws IOException {
+        System.gc();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+
+        PrintWriter out = new PrintWriter(
+                new BufferedWriter(new FileWriter(output)));
+        TagCloudGeneratorSJC.printAll(out, n, corpus.getPath(),
+                output.getPath());
+        out.close();
+
+        long nanos = System.nanoTime() - start;
+        double megabytes = corpus.length() / MB;
+        Run r = new Run();
+        r.throughput = megabytes / (nanos / 1e9);
+        r.allocPerMb = (allocatedBytes() - allocated) / megabytes;
+        r.hash = hashFromCbox(output);
+        return r;
+    }
+
+    /**
+     * Returns the bytes allocated so far by this thread, or 0 if the JVM can't
+     * tell.
+     *
+     * @return allocated bytes
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the peak resident memory of the process where the OS reports it,
+     * and the peak heap use otherwise.
+     *
+     * @return peak bytes
+     * @throws IOException
+     *             if the process status can't be read
+     */
+    private static long peakBytes() throws IOException {
+        File status = new File("/proc/self/status");
+        if (status.exists()) {
+            BufferedReader in = new BufferedReader(new FileReader(status));
+            try {
+                String line = in.readLine();
+                while (line != null) {
+                    if (line.startsWith("VmHWM:")) {
+                        String kb = line.substring("VmHWM:".length())
+                                .replace("kB", "").trim();
+                        return Long.parseLong(kb) * 1024;
+                    }
+                    line = in.readLine();
+                }
+            } finally {
+                in.close();
+            }
+        }
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory
+                .getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Runs the pipeline once in a new JVM, started with the same JVM options
+     * and class path as this one, and returns its peak resident memory.
+     *
+     * @param corpus
+     *            the corpus file
+     * @param n
+     *            amount of words in the tag cloud
+     * @param output
+     *            the tag cloud file
+     * @return peak resident memory in megabytes
+     * @throws IOException
+     *             if the JVM can't be started or fails
+     */
+    private static double peakRssMb(File corpus, int n, File output)
+            throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java")
+                .getPath());
+        command.addAll(
+                ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RegressionGate.class.getName());
+        command.add(MEASURE_RSS);
+        command.add(corpus.getPath());
+        command.add(Integer.toString(n));
+        command.add(output.getPath());
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process child = builder.start();
+        String last = null;
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(child.getInputStream(), "UTF-8"));
+        try {
+            String line = in.readLine();
+            while (line != null) {
+                last = line;
+                line = in.readLine();
+            }
+        } finally {
+            in.close();
+        }
+        int status;
+        try {
+            status = child.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted measuring peak memory", e);
+        }
+        if (status != 0 || last == null) {
+            throw new IOException("Peak memory run failed with status "
+                    + status);
+        }
+        return Long.parseLong(last.trim()) / MB;
+    }
+
+    /**
+     * Returns the SHA-256 of {@code output} from the tag box line on.
+     *
+     * @param output
+     *            the tag cloud file
+     * @return hex hash
+     * @throws IOException
+     *             if the file can't be read
+     */
+    private static String hashFromCbox(File output) throws IOException {
+        MessageDigest digest = TagCloudGeneratorSJC.newSha256();
+        BufferedReader in = new BufferedReader(new FileReader(output));
+        try {
+            boolean inBox = false;
+            String line = in.readLine();
+            while (line != null) {
+                inBox = inBox || line.trim().equals(CBOX);
+                if (inBox) {
+                    digest.update((line + "\n").getBytes("UTF-8"));
+                }
+                line = in.readLine();
+            }
+        } finally {
+            in.close();
+        }
+        return TagCloudGeneratorSJC.toHex(digest.digest());
+    }
+
+    /**
+     * Returns the arguments the corpus and tag cloud are made from, so a
+     * baseline is only compared with runs made the same way.
+     *
+     * @param size
+     *            corpus size in bytes
+     * @param n
+     *            amount of words in the tag cloud
+     * @return description of the arguments
+     */
+    private static String parameters(long size, int n) {
+        return "size=" + size + " n=" + n + " " + corpusParameters()
+                + " encoding=" + System.getProperty("file.encoding");
+    }
+
+    /**
+     * Returns the arguments the corpus is generated from, other than its
+     * size.
+     *
+     * @return description of the arguments
+     */
+    private static String corpusParameters() {
+        return "unique=" + CorpusGenerator.UNIQUE + " seed="
+                + CorpusGenerator.SEED + " unicode=" + CorpusGenerator.UNICODE
+                + " lineWords=" + CorpusGenerator.LINE_WORDS + " exponent="
+                + CorpusGenerator.EXPONENT;
+    }
+
+    /**
+     * Returns the corpus file of {@code size} bytes in {@code dir}. Its name
+     * holds the size, the seed and a hash of the other arguments, so a corpus
+     * made with different arguments is never reused.
+     *
+     * @param dir
+     *            directory of the generated files
+     * @param size
+     *            corpus size in bytes
+     * @return the corpus file
+     */
+    private static File corpusFile(File dir, long size) {
+        byte[] params = corpusParameters().getBytes();
+        String id = TagCloudGeneratorSJC
+                .toHex(TagCloudGeneratorSJC.newSha256().digest(params))
+                .substring(0, 12);
+        return new File(dir, "tagcloud-corpus-" + size + "-seed"
+                + CorpusGenerator.SEED + "-" + id + ".txt");
+    }
+
+    /**
+     * Returns the median of {@code values}, sorting them.
+     *
+     * @param values
+     *            the values
+     * @return the median
+     */
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        int mid = values.length / 2;
+        if (values.length % 2 == 1) {
+            return values[mid];
+        }
+        return (values[mid - 1] + values[mid]) / 2;
+    }
+
+    /**
+     * Returns the properties in {@code file}.
+     *
+     * @param file
+     *            the properties file
+     * @return the properties
+     * @throws IOException
+     *             if the file can't be read
+     */
+    private static Properties load(File file) throws IOException {
+        Properties p = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            p.load(in);
+        } finally {
+            in.close();
+        }
+        return p;
+    }
+
+    /**
+     * Sets the parameters and output hash in the reference file, keeping its
+     * comments and any other lines as they are.
+     *
+     * @param reference
+     *            the reference file
+     * @param params
+     *            the parameters
+     * @param hash
+     *            the output hash
+     * @throws IOException
+     *             if the file can't be read or written
+     */
+    private static void writeReference(File reference, String params,
+            String hash) throws IOException {
+        String text = "";
+        if (reference.isFile()) {
+            text = new String(Files.readAllBytes(reference.toPath()),
+                    "ISO-8859-1");
+        }
+        String newline = text.contains("\r\n") ? "\r\n" : "\n";
+        List<String> lines = new ArrayList<String>(
+                Arrays.asList(text.split("\r?\n")));
+        if (text.isEmpty()) {
+            lines.clear();
+            lines.add("#Tag cloud regression gate reference output");
+        }
+        String[] keys = { "parameters", "output.sha256" };
+        String[] values = { params, hash };
+        for (int k = 0; k < keys.length; k++) {
+            String line = keys[k] + "="
+                    + values[k].replace("=", "\\=").replace(":", "\\:");
+            boolean found = false;
+            for (int i = 0; i < lines.size() && !found; i++) {
+                if (lines.get(i).startsWith(keys[k] + "=")) {
+                    lines.set(i, line);
+                    found = true;
+                }
+            }
+            if (!found) {
+                lines.add(line);
+            }
+        }
+        StringBuilder out = new StringBuilder();
+        for (String line : lines) {
+            out.append(line).append(newline);
+        }
+        Files.write(reference.toPath(), out.toString().getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * Checks that {@code value} didn't regress from its baseline. Fails if
+     * the baseline doesn't hold the measurement.
+     *
+     * @param name
+     *            name of the measurement
+     * @param value
+     *            the measured value
+     * @param baseline
+     *            the baseline
+     * @param key
+     *            key of the measurement in the baseline
+     * @param higherIsBetter
+     *            whether larger values are better
+     * @param threshold
+     *            allowed regression in percent
+     * @return true if the value is within the threshold
+     */
+    private static boolean check(String name, double value,
+            Properties baseline, String key, boolean higherIsBetter,
+            double threshold) {
+        if (baseline.getProperty(key) == null) {
+            System.out.println(String.format(Locale.ROOT,
+                    "%-12s %14.2f MISSING from baseline", name, value));
+            return false;
+        }
+        double base = Double.parseDouble(baseline.getProperty(key));
+        double change = 100 * (value - base) / base;
+        boolean ok = higherIsBetter ? change >= -threshold
+                : change <= threshold;
+        System.out.println(String.format(Locale.ROOT,
+                "%-12s %14.2f baseline %14.2f (%+.1f%%) %s", name, value, base,
+                change, ok ? "ok" : "REGRESSED"));
+        return ok;
+    }
+
+    /**
+     * Main method. Exits with status 1 if the output or the performance
+     * regressed, or if the reference or local baseline is missing.
+     *
+     * @param args
+     *            optionally {@code --generate} to only make the corpus,
+     *            {@code --update} to record this machine's performance,
+     *            {@code --rereference} to record the output as the new
+     *            reference, {@code --output-only} to check the output alone,
+     *            {@code --reference FILE}, {@code --local FILE},
+     *            {@code --size SIZE}, {@code --n N}, {@code --threshold
+     *            PERCENT} and {@code --dir DIR} for the generated files
+     * @throws IOException
+     *             if a file can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 4 && args[0].equals(MEASURE_RSS)) {
+            run(new File(args[1]), Integer.parseInt(args[2]),
+                    new File(args[3]));
+            System.out.println(peakBytes());
+            return;
+        }
+
+        boolean generate = false;
+        boolean update = false;
+        boolean rereference = false;
+        boolean outputOnly = false;
+        String referenceFile = REFERENCE;
+        String localFile = LOCAL;
+        long size = CorpusGenerator.parseSize(SIZE);
+        int n = N;
+        double threshold = THRESHOLD;
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--generate")) {
+                generate = true;
+            } else if (args[i].equals("--update")) {
+                update = true;
+            } else if (args[i].equals("--rereference")) {
+                rereference = true;
+            } else if (args[i].equals("--output-only")) {
+                outputOnly = true;
+            } else if (i + 1 < args.length) {
+                String value = args[i + 1];
+                i++;
+                if (args[i - 1].equals("--reference")) {
+                    referenceFile = value;
+                } else if (args[i - 1].equals("--local")) {
+                    localFile = value;
+                } else if (args[i - 1].equals("--size")) {
+                    size = CorpusGenerator.parseSize(value);
+                } else if (args[i - 1].equals("--n")) {
+                    n = Integer.parseInt(value);
+                } else if (args[i - 1].equals("--threshold")) {
+                    threshold = Double.parseDouble(value);
+                } else if (args[i - 1].equals("--dir")) {
+                    dir = new File(value);
+                } else {
+                    System.err.println("Unknown option " + args[i - 1]);
+                    System.exit(2);
+                }
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+        if (update && outputOnly) {
+            System.err.println("--update records performance, so it can't be"
+                    + " used with --output-only");
+            System.exit(2);
+        }
+
+        //generate the corpus in its own run, writing it under a temporary
+        //name so a partly written corpus is never taken for a whole one
+        File corpus = corpusFile(dir, size);
+        if (generate) {
+            if (corpus.isFile()) {
+                System.out.println("Already generated " + corpus);
+                return;
+            }
+            File tmp = new File(dir, corpus.getName() + ".tmp");
+            CorpusGenerator.generate(tmp.getPath(), size,
+                    CorpusGenerator.UNIQUE, CorpusGenerator.SEED,
+                    CorpusGenerator.UNICODE, CorpusGenerator.LINE_WORDS,
+                    CorpusGenerator.EXPONENT);
+            if (!tmp.renameTo(corpus)) {
+                throw new IOException("Could not rename " + tmp);
+            }
+            System.out.println("Generated " + corpus);
+            return;
+        }
+        if (!corpus.isFile()) {
+            System.err.println("No corpus " + corpus + "; run with --generate"
+                    + " and the same --size and --dir first");
+            System.exit(2);
+        }
+
+        //check that the reference and local baseline exist and match the
+        //parameters before spending time on the runs
+        String params = parameters(size, n);
+        File reference = new File(referenceFile);
+        Properties expected = null;
+        if (!rereference) {
+            if (!reference.isFile()) {
+                System.err.println("No reference " + reference
+                        + "; run with --rereference to record one");
+                System.exit(1);
+            }
+            expected = load(reference);
+            if (!params.equals(expected.getProperty("parameters"))) {
+                System.out.println("Reference was recorded with "
+                        + expected.getProperty("parameters")
+                        + "; rerun with --rereference to record one for "
+                        + params);
+                System.exit(1);
+            }
+        }
+        File local = new File(localFile);
+        Properties baseline = null;
+        if (!update && !outputOnly && !rereference) {
+            if (!local.isFile()) {
+                System.err.println("No local baseline " + local
+                        + "; run with --update to record this machine's"
+                        + " performance, or with --output-only");
+                System.exit(1);
+            }
+            baseline = load(local);
+            if (!params.equals(baseline.getProperty("parameters"))) {
+                System.out.println("Local baseline was recorded with "
+                        + baseline.getProperty("parameters")
+                        + "; rerun with --update to record one for "
+                        + params);
+                System.exit(1);
+            }
+        }
+
+        //warm up, then run the pipeline and take the median of each
+        //measurement
+        File output = new File(dir,
+                corpus.getName().replace(".txt", ".html"));
+        for (int i = 0; i < WARMUPS; i++) {
+            run(corpus, n, output);
+        }
+        double[] throughputs = new double[RUNS];
+        double[] allocs = new double[RUNS];
+        String hash = null;
+        for (int i = 0; i < RUNS; i++) {
+            Run r = run(corpus, n, output);
+            if (hash != null && !hash.equals(r.hash)) {
+                System.out.println("output       DIFFERS between runs");
+                System.exit(1);
+            }
+            hash = r.hash;
+            throughputs[i] = r.throughput;
+            allocs[i] = r.allocPerMb;
+        }
+
+        //the output must match the reference before anything is recorded
+        if (rereference) {
+            writeReference(reference, params, hash);
+            System.out.println("Recorded reference " + reference);
+        } else {
+            boolean same = hash.equals(expected.getProperty("output.sha256"));
+            System.out.println("output       " + (same ? "matches reference"
+                    : "DIFFERS from reference"));
+            if (!same) {
+                if (update) {
+                    System.out.println("Not recording performance of output"
+                            + " that differs from the reference; rerun with"
+                            + " --rereference if the change is intended");
+                }
+                System.exit(1);
+            }
+        }
+        if (outputOnly || (rereference && !update)) {
+            return;
+        }
+
+        double throughput = median(throughputs);
+        double allocPerMb = median(allocs);
+        double[] peaks = new double[RSS_RUNS];
+        for (int i = 0; i < RSS_RUNS; i++) {
+            peaks[i] = peakRssMb(corpus, n, output);
+        }
+        double peakMb = median(peaks);
+
+        if (update) {
+            Properties p = new Properties();
+            p.setProperty("parameters", params);
+            p.setProperty("throughput.mbPerSecond",
+                    Double.toString(throughput));
+            p.setProperty("allocation.bytesPerMb",
+                    Double.toString(allocPerMb));
+            p.setProperty("peakRss.mb", Double.toString(peakMb));
+            OutputStream out = new FileOutputStream(local);
+            try {
+                p.store(out, "Tag cloud performance on this machine");
+            } finally {
+                out.close();
+            }
+            System.out.println("Recorded local baseline " + local);
+            return;
+        }
+
+        //compare each measurement with this machine's baseline
+        boolean ok = check("throughput", throughput, baseline,
+                "throughput.mbPerSecond", true, threshold);
+        ok &= check("alloc/MB", allocPerMb, baseline, "allocation.bytesPerMb",
+                false, threshold);
+        ok &= check("peak RSS MB", peakMb, baseline, "peakRss.mb", false,
+                threshold);
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tag Cloud Batch. Generates a tag cloud for every input file, skipping the
+ * ones whose tag cloud is still current according to a manifest.
+ *
+ * @author Noah Bennett, Mark Karev
+ */
+public final class TagCloudBatch {
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private TagCloudBatch() {
+    }
+
+    /**
+     * Amount of tag clouds generated between saves of the manifest.
+     */
+    private static final int SAVE_EVERY = 1000;
+
+    /**
+     * Adds {@code input} to {@code files}, or the files directly inside it if
+     * it is a directory.
+     *
+     * @param input
+     *            a file or directory
+     * @param files
+     *            the list of input files
+     * @updates files
+     */
+    private static void addInputs(File input, List<File> files) {
+        if (input.isDirectory()) {
+            File[] children = input.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    if (child.isFile()) {
+                        files.add(child);
+                    }
+                }
+            }
+        } else {
+            files.add(input);
+        }
+    }
+
+    /**
+     * Returns where the tag cloud of {@code input} is written: the input's
+     * path relative to the working directory, or its absolute path if it is
+     * elsewhere, mirrored under {@code outDir}. Distinct inputs therefore get
+     * distinct outputs even when their file names are the same.
+     *
+     * @param input
+     *            the input file
+     * @param outDir
+     *            the output directory
+     * @param cwd
+     *            canonical path of the working directory
+     * @return the output file
+     * @throws IOException
+     *             if the input's path can't be resolved
+     */
+    private static File outputFor(File input, File outDir, String cwd)
+            throws IOException {
+        String path = input.getCanonicalPath();
+        String prefix = cwd.endsWith(File.separator) ? cwd
+                : cwd + File.separator;
+        String relative;
+        if (path.startsWith(prefix)) {
+            relative = path.substring(prefix.length());
+        } else {
+            //drop the root, such as "/" or "C:\", of the absolute path
+            relative = path.replaceFirst("^[A-Za-z]:", "");
+            while (relative.startsWith(File.separator)) {
+                relative = relative.substring(1);
+            }
+        }
+        return new File(outDir, relative + ".html");
+    }
+
+    /**
+     * Generates the tag cloud of {@code input} into {@code output} unless it
+     * is still current, and records it in the manifest.
+     *
+     * @param manifest
+     *            the manifest
+     * @param n
+     *            amount of words in the tag cloud
+     * @param input
+     *            the input file
+     * @param output
+     *            the tag cloud file
+     * @return true if the tag cloud was generated, false if it was current
+     * @throws IOException
+     *             if the input can't be read or the output can't be written
+     */
+    private static boolean generate(CloudManifest manifest, int n,
+            File input, File output) throws IOException {
+        String options = output.getAbsolutePath();
+        CloudManifest.Fingerprint state = new CloudManifest.Fingerprint(input);
+        if (manifest.isCurrent(state, n, options, output)) {
+            return false;
+        }
+
+        //hash the input before rendering it, so a change made while it is
+        //rendered shows up as a mismatch on the next run
+        state.sampleHash();
+        state.fullHash();
+        File parent = output.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        PrintWriter out = new PrintWriter(
+                new BufferedWriter(new FileWriter(output)));
+        try {
+            TagCloudGeneratorSJC.printAll(out, n, input.getPath(),
+                    output.getPath());
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Error writing " + output);
+        }
+        manifest.record(state, n, options, output);
+        return true;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the manifest file, the amount of words, the output directory
+     *            and one or more input files or directories
+     * @throws IOException
+     *             if the manifest can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: TagCloudBatch <manifest> <n> <outDir>"
+                    + " <input>...");
+            return;
+        }
+        int n = 0;
+        try {
+            n = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            System.err.println("Error: Number is in the wrong format");
+            return;
+        }
+        if (n <= 0) {
+            System.err.println("Error: Value greater than 0 required");
+            return;
+        }
+        File outDir = new File(args[2]);
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            System.err.println("Invalid output directory");
+            return;
+        }
+        CloudManifest manifest = new CloudManifest(new File(args[0]));
+
+        List<File> files = new ArrayList<File>();
+        for (int i = 3; i < args.length; i++) {
+            addInputs(new File(args[i]), files);
+        }
+
+        //regenerate only the inputs whose tag cloud isn't current, reporting
+        //inputs that fail and saving the manifest as the batch goes
+        String cwd = new File(".").getCanonicalPath();
+        Set<String> outputs = new HashSet<String>();
+        int skipped = 0;
+        int generated = 0;
+        int failed = 0;
+        try {
+            for (File input : files) {
+                try {
+                    File output = outputFor(input, outDir, cwd);
+                    if (!outputs.add(output.getCanonicalPath())) {
+                        throw new IOException("Duplicate output " + output);
+                    }
+                    if (generate(manifest, n, input, output)) {
+                        generated++;
+                        if (generated % SAVE_EVERY == 0) {
+                            manifest.save();
+                        }
+                    } else {
+                        skipped++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error: " + input + ": " + e);
+                    failed++;
+                }
+            }
+        } finally {
+            manifest.save();
+        }
+
+        System.out.println("Generated " + generated + ", up to date "
+                + skipped + ", failed " + failed);
+    }
+}
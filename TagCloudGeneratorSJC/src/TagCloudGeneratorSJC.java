@@ -1,17 +1,26 @@
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import components.simplereader.SimpleReader;
@@ -41,17 +50,26 @@ public final class TagCloudGeneratorSJC {
      * Amount of font sizes.
      */
     private static final int SIZES = 38;
+    /**
+     * Size of the buffer words kept off the heap are copied through.
+     */
+    private static final int BUFFER_BYTES = 8192;
 
     /**
      * Comparator IntOrder. Compares pairs of strings and integers sorts them by
-     * the integer value.
+     * the integer value, breaking ties by the string value so the top words
+     * are the same on every run.
      */
     private static class IntOrder
             implements Comparator<Map.Entry<String, Integer>> {
         @Override
         public int compare(Map.Entry<String, Integer> o1,
                 Map.Entry<String, Integer> o2) {
-            return o2.getValue().compareTo(o1.getValue());
+            int c = o2.getValue().compareTo(o1.getValue());
+            if (c == 0) {
+                c = o1.getKey().compareTo(o2.getKey());
+            }
+            return c;
         }
     }
 
@@ -160,6 +178,40 @@ public final class TagCloudGeneratorSJC {
                 + "</span>");
     }
 
+    /**
+     * Prints a word kept off the heap into the tag cloud, copying its bytes
+     * straight from the vocabulary.
+     *
+     * @param fontSize
+     *            Font size of the word being added
+     * @param count
+     *            Amount of times the word appears in the file
+     * @param words
+     *            The vocabulary holding the word
+     * @param slot
+     *            The slot of the word in the vocabulary
+     * @param out
+     *            output stream, in UTF-8
+     * @param buffer
+     *            buffer to copy the word through
+     * @throws IOException
+     *             if the word can't be written
+     */
+    private static void printTags(int fontSize, int count,
+            OffHeapVocabulary words, int slot, OutputStream out,
+            byte[] buffer) throws IOException {
+        assert count > 0 : "Violation of: count > 0";
+        assert fontSize > 0 : "Violation of: size > 0";
+
+        //print each word into the tag cloud
+        out.write(("        " + "<span style=\"cursor:default\" class=\"f"
+                + fontSize + "\" title=\"count: " + count + "\">")
+                        .getBytes("UTF-8"));
+        words.writeWord(slot, out, buffer);
+        out.write(("</span>" + System.getProperty("line.separator"))
+                .getBytes("UTF-8"));
+    }
+
     /**
      * Prints out the closing tags on the html file.
      *
@@ -187,7 +239,7 @@ public final class TagCloudGeneratorSJC {
      *            largest amount of times a word shows up in the input file
      * @return calcSize
      */
-    private static int calcSize(int n, int value, int maxword) {
+    static int calcSize(int n, int value, int maxword) {
         assert value > 0 : "Violation of: value is greater than 0";
         assert maxword > 0 : "Violation of: maxword is greater than 0";
 
@@ -212,99 +264,113 @@ public final class TagCloudGeneratorSJC {
     }
 
     /**
-     * Adds pairs of all words and their counts to a list that sorts them by the
-     * amount of times each word shows up.
+     * Returns the set of separator characters.
+     *
+     * @return set of every character in {@code separatorsStr}
+     */
+    static Set<Character> separatorSet() {
+        Set<Character> separators = new HashSet<Character>();
+        for (int j = 0; j < separatorsStr.length(); j++) {
+            separators.add(separatorsStr.charAt(j));
+        }
+        return separators;
+    }
+
+    /**
+     * Counts every word of a single line of text into {@code words}.
+     *
+     * @param line
+     *            the line of text to be counted
+     * @param words
+     *            the map of words and their counts
+     * @param separators
+     *            the set of separator characters
+     * @updates words
+     * @ensures every word in the lowercased line has its count incremented
+     */
+    static void addLine(String line, Map<String, Integer> words,
+            Set<Character> separators) {
+        assert line != null : "Violation of: line is not null";
+
+        //separate each word and add it to the map if it doesn't contain
+        //separators, if the word is already in the map, increment the count
+        String lower = line.toLowerCase();
+        int position = 0;
+        while (position < lower.length()) {
+            String word = nextWordOrSeparator(lower, position, separators);
+            if (words.containsKey(word)) {
+                words.replace(word, words.get(word), words.get(word) + 1);
+            } else if (!separators.contains(word.charAt(0))) {
+                words.put(word, 1);
+            }
+            position += word.length();
+        }
+    }
+
+    /**
+     * Reads {@code file} and returns a map of all of its words and their
+     * counts.
      *
      * @param file
      *            The file which is to be read for all of the words and their
      *            counts.
-     * @param sInts
-     *            The list which sorts the pairs by the word count.
+     * @return map of every word in the file to its count
      * @requires The file string isn't empty.
-     * @ensures List sInts is filled with pairs of all the words and their
-     *          counts
      */
-    private static void addToIntList(String file,
-            List<Map.Entry<String, Integer>> sInts) {
+    static Map<String, Integer> countWords(String file) {
         assert file.length() > 0 : "Violation of file is not empty";
 
         //create the map for words and their counts and a simple reader reading
         //the file with the text
         Map<String, Integer> words = new HashMap<>();
         SimpleReader in = new SimpleReader1L(file);
+        Set<Character> separators = separatorSet();
 
-        //create a set with separators
-        Set<Character> separators = new HashSet<Character>();
-        for (int j = 0; j < separatorsStr.length(); j++) {
-            separators.add(separatorsStr.charAt(j));
-        }
-
-        //while the file isn't empty remove each line, separate each word
-        //and add it to the map if it doesn't contain separators,
-        //if the word is already in the map, increment the word count
+        //while the file isn't empty remove each line and count its words
         while (!in.atEOS()) {
-            String line = in.nextLine();
-            line = line.toLowerCase();
-            int position = 0;
-            while (position < line.length()) {
-                String word = nextWordOrSeparator(line, position, separators);
-                if (words.containsKey(word)) {
-                    words.replace(word, words.get(word), words.get(word) + 1);
-                } else if (!separators.contains(word.charAt(0))) {
-                    words.put(word, 1);
-                }
-                position += word.length();
-            }
-
-        }
-
-        //create entry set and iterator
-        Set<Map.Entry<String, Integer>> wordEntries = words.entrySet();
-        Iterator<Map.Entry<String, Integer>> iter = wordEntries.iterator();
-
-        //iterate through the set, add the pairs to the integer list
-        while (iter.hasNext()) {
-            Map.Entry<String, Integer> p = iter.next();
-            sInts.add(p);
+            addLine(in.nextLine(), words, separators);
         }
 
         //close input stream
         in.close();
+
+        return words;
     }
 
     /**
-     * Adds all of the top {@code n} pairs of words and their word count, and
-     * returns the largest word count.
+     * Returns the top {@code n} pairs of words and their word counts sorted by
+     * decreasing word count. Only {@code n} pairs are ever kept, in a heap
+     * whose head is the least common of them, instead of sorting every word.
      *
+     * @param words
+     *            pairs of all words and their counts
      * @param n
-     *            the number of words the user wants in the tag cloud.
-     * @param sInts
-     *            the list with all pairs of words and word counts in sorted
-     *            order.
-     * @param sStrs
-     *            the list which is to have all of the top n words
-     * @return max the largest word count
-     * @requires sInts is not empty and sStrs is empty.
+     *            the number of words wanted
+     * @return list of at most {@code n} pairs in {@code IntOrder}
      */
-    private static int addToStringListReturnMax(int n,
-            List<Map.Entry<String, Integer>> sInts,
-            List<Map.Entry<String, Integer>> sStrs) {
-        assert sInts.size() > 0 : "Violation of sInts is not empty";
-        assert sStrs.size() == 0 : "Violation of sStrings is empty";
-
-        //create comparator, sort ints, remove the max and get its word count
-        Comparator<Map.Entry<String, Integer>> intSort = new IntOrder();
-        sInts.sort(intSort);
-        Map.Entry<String, Integer> p = sInts.remove(0);
-        int max = p.getValue();
-
-        //add the top n words to the list to be sorted alphabetically
-        for (int i = 0; i < n; i++) {
-            sStrs.add(p);
-            p = sInts.remove(0);
+    static List<Map.Entry<String, Integer>> topWords(
+            Collection<Map.Entry<String, Integer>> words, int n) {
+        assert n > 0 : "Violation of: n > 0";
+
+        //keep the n most common pairs with the least common at the head
+        Comparator<Map.Entry<String, Integer>> intOrder = new IntOrder();
+        PriorityQueue<Map.Entry<String, Integer>> heap = new PriorityQueue<>(
+                Math.min(n, words.size()) + 1,
+                Collections.reverseOrder(intOrder));
+        for (Map.Entry<String, Integer> p : words) {
+            if (heap.size() < n) {
+                heap.add(p);
+            } else if (intOrder.compare(p, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(p);
+            }
         }
 
-        return max;
+        //sort the kept pairs by word count
+        List<Map.Entry<String, Integer>> sortedInts;
+        sortedInts = new ArrayList<Map.Entry<String, Integer>>(heap);
+        sortedInts.sort(intOrder);
+        return sortedInts;
     }
 
     /**
@@ -319,41 +385,120 @@ public final class TagCloudGeneratorSJC {
      * @param out
      *            Output stream
      */
-    private static void printAll(PrintWriter out, int n, String file,
+    static void printAll(PrintWriter out, int n, String file,
             String outFile) {
         assert !file.isEmpty() : "Violation of: file is not null";
         assert !outFile.isEmpty() : "Violation of: outFile is not null";
 
-        //create a list to store the pairs sorted by word count and add all words
-        List<Map.Entry<String, Integer>> sortedInts;
-        sortedInts = new ArrayList<Map.Entry<String, Integer>>();
-        addToIntList(file, sortedInts);
+        //count all words and keep the top n sorted by word count
+        List<Map.Entry<String, Integer>> sortedInts = topWords(
+                countWords(file).entrySet(), n);
 
-        //create a list to store pairs sorted by word. create a comparator for the
-        //strings to sort them alphabetically.
-        Comparator<Map.Entry<String, Integer>> strOrder = new StrOrder();
-        List<Map.Entry<String, Integer>> sortedStrs;
-        sortedStrs = new ArrayList<Map.Entry<String, Integer>>();
+        //print the tag cloud from the word counts
+        printCloud(out, n, file, sortedInts);
+    }
 
-        //print opening html tags and header
-        printHeader(n, out, file);
+    /**
+     * Prints one html file per amount of words, counting and sorting the input
+     * only once. The smaller tag clouds are made from the front of the largest
+     * one.
+     *
+     * @param ns
+     *            Amounts of words in each tag cloud
+     * @param file
+     *            File to be read in
+     * @param outFiles
+     *            Files each tag cloud should be written to
+     * @throws IOException
+     *             if an output file can't be written
+     * @requires |ns| = |outFiles| and every n > 0
+     */
+    static void printAll(int[] ns, String file, String[] outFiles)
+            throws IOException {
+        assert !file.isEmpty() : "Violation of: file is not null";
+        assert ns.length == outFiles.length : "Violation of: |ns| = |outFiles|";
 
-        //find the max word count if the file isn't empty
-        int maxword = 0;
-        if (sortedInts.size() > 0) {
-            maxword = addToStringListReturnMax(n, sortedInts, sortedStrs);
+        //count all words once and keep the top words for the largest n
+        int maxN = 0;
+        for (int n : ns) {
+            maxN = Math.max(maxN, n);
+        }
+        List<Map.Entry<String, Integer>> sortedInts = topWords(
+                countWords(file).entrySet(), maxN);
+
+        //print each tag cloud from the front of the sorted words
+        for (int i = 0; i < ns.length; i++) {
+            PrintWriter out = new PrintWriter(
+                    new BufferedWriter(new FileWriter(outFiles[i])));
+            printCloud(out, ns[i], file, sortedInts);
+            out.close();
+            if (out.checkError()) {
+                throw new IOException("Error writing " + outFiles[i]);
+            }
         }
+    }
+
+    /**
+     * Prints the entire html file for words that have already been counted.
+     *
+     * @param out
+     *            Output stream
+     * @param n
+     *            Amount of words in the tag cloud
+     * @param file
+     *            Name of the input shown in the title
+     * @param sortedInts
+     *            pairs of words and their counts in {@code IntOrder}; only the
+     *            first {@code n} are printed and the list is not modified
+     */
+    static void printCloud(PrintWriter out, int n, String file,
+            List<Map.Entry<String, Integer>> sortedInts) {
+        printCloud(out, n, file, sortedInts, false);
+    }
+
+    /**
+     * Prints the entire html file for words that have already been counted,
+     * optionally escaping the file name and words so that text from an
+     * untrusted source can't inject markup.
+     *
+     * @param out
+     *            Output stream
+     * @param n
+     *            Amount of words in the tag cloud
+     * @param file
+     *            Name of the input shown in the title
+     * @param sortedInts
+     *            pairs of words and their counts in {@code IntOrder}; only the
+     *            first {@code n} are printed and the list is not modified
+     * @param escapeHtml
+     *            whether to escape the file name and words
+     */
+    static void printCloud(PrintWriter out, int n, String file,
+            List<Map.Entry<String, Integer>> sortedInts, boolean escapeHtml) {
+        assert !file.isEmpty() : "Violation of: file is not null";
 
-        //sort the strings alphabetically
-        sortedStrs.sort(strOrder);
+        //print opening html tags and header
+        printHeader(n, out, escapeHtml ? escapeHtml(file) : file);
 
-        //for the top n most common words, calculate the font and print it to the
-        //output file
-        for (int i = 0; i < n; i++) {
-            if (sortedStrs.size() > 0) {
-                Map.Entry<String, Integer> pStr = sortedStrs.remove(0);
+        //copy the top n words, or all of them if there are fewer than n, and
+        //sort them alphabetically
+        int count = Math.min(n, sortedInts.size());
+        List<Map.Entry<String, Integer>> sortedStrs;
+        sortedStrs = new ArrayList<Map.Entry<String, Integer>>(
+                sortedInts.subList(0, count));
+        sortedStrs.sort(new StrOrder());
+
+        //find the max word count, calculate the font of each word and print
+        //it to the output file
+        if (count > 0) {
+            int maxword = sortedInts.get(0).getValue();
+            for (Map.Entry<String, Integer> pStr : sortedStrs) {
                 int size = calcSize(n, pStr.getValue(), maxword);
-                printTags(size, pStr.getValue(), pStr.getKey(), out);
+                String word = pStr.getKey();
+                if (escapeHtml) {
+                    word = escapeHtml(word);
+                }
+                printTags(size, pStr.getValue(), word, out);
             }
         }
 
@@ -361,13 +506,222 @@ public final class TagCloudGeneratorSJC {
         printFooter(out);
     }
 
+    /**
+     * Replaces the characters with a meaning in html by entities.
+     *
+     * @param text
+     *            the text
+     * @return escaped text
+     */
+    static String escapeHtml(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '&') {
+                escaped.append("&amp;");
+            } else if (c == '<') {
+                escaped.append("&lt;");
+            } else if (c == '>') {
+                escaped.append("&gt;");
+            } else if (c == '"') {
+                escaped.append("&quot;");
+            } else if (c == '\'') {
+                escaped.append("&#39;");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     *
+     * @return the digest
+     */
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns {@code bytes} in hex.
+     *
+     * @param bytes
+     *            the bytes
+     * @return hex string
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Prints one html file per amount of words like
+     * {@link #printAll(int[], String, String[])}, but keeps the vocabulary off
+     * the heap so that only the top words are ever made into objects. The
+     * files are written in UTF-8.
+     *
+     * @param ns
+     *            Amounts of words in each tag cloud
+     * @param file
+     *            File to be read in
+     * @param outFiles
+     *            Files each tag cloud should be written to
+     * @throws IOException
+     *             if the input can't be read or an output file can't be
+     *             written
+     * @requires |ns| = |outFiles| and every n > 0
+     */
+    static void printAllOffHeap(int[] ns, String file, String[] outFiles)
+            throws IOException {
+        assert !file.isEmpty() : "Violation of: file is not null";
+        assert ns.length == outFiles.length : "Violation of: |ns| = |outFiles|";
+
+        //count all words once and keep the top words for the largest n
+        int maxN = 0;
+        for (int n : ns) {
+            maxN = Math.max(maxN, n);
+        }
+        OffHeapVocabulary words = OffHeapVocabulary.countWords(file);
+        try {
+            int[] sortedInts = words.top(maxN);
+
+            //print each tag cloud from the front of the sorted words
+            for (int i = 0; i < ns.length; i++) {
+                OutputStream out = new BufferedOutputStream(
+                        new FileOutputStream(outFiles[i]));
+                try {
+                    printCloud(out, ns[i], file, words, sortedInts);
+                } finally {
+                    out.close();
+                }
+            }
+        } finally {
+            words.close();
+        }
+    }
+
+    /**
+     * Prints the entire html file for words counted off the heap.
+     *
+     * @param out
+     *            Output stream
+     * @param n
+     *            Amount of words in the tag cloud
+     * @param file
+     *            Name of the input shown in the title
+     * @param words
+     *            The vocabulary
+     * @param sortedInts
+     *            slots of words in {@code IntOrder}; only the first {@code n}
+     *            are printed and the array is not modified
+     * @throws IOException
+     *             if the tag cloud can't be written
+     */
+    private static void printCloud(OutputStream out, int n, String file,
+            OffHeapVocabulary words, int[] sortedInts) throws IOException {
+        assert !file.isEmpty() : "Violation of: file is not null";
+
+        //print opening html tags and header
+        PrintWriter text = new PrintWriter(
+                new OutputStreamWriter(out, "UTF-8"));
+        printHeader(n, text, file);
+        text.flush();
+
+        //copy the top n words and sort them alphabetically
+        int count = Math.min(n, sortedInts.length);
+        int[] sortedStrs = Arrays.copyOf(sortedInts, count);
+        words.sortByWord(sortedStrs);
+
+        //find the max word count, calculate the font of each word and print
+        //it to the output file
+        if (count > 0) {
+            int maxword = words.count(sortedInts[0]);
+            byte[] buffer = new byte[BUFFER_BYTES];
+            for (int slot : sortedStrs) {
+                int value = words.count(slot);
+                int size = calcSize(n, value, maxword);
+                printTags(size, value, words, slot, out, buffer);
+            }
+        }
+
+        //print closing tags
+        printFooter(text);
+        text.flush();
+    }
+
+    /**
+     * Prints the tag cloud of the top {@code n} words as positioned SVG.
+     *
+     * @param out
+     *            Output stream
+     * @param n
+     *            Amount of words in the tag cloud
+     * @param file
+     *            File to be read in
+     * @param seed
+     *            seed of the layout; the same seed gives the same layout
+     */
+    static void printAllSvg(PrintWriter out, int n, String file, long seed) {
+        assert !file.isEmpty() : "Violation of: file is not null";
+        assert n > 0 : "Violation of: n > 0";
+
+        //count all words and keep the top n sorted by word count
+        List<Map.Entry<String, Integer>> sortedInts = topWords(
+                countWords(file).entrySet(), n);
+
+        CloudLayout.printSvg(out, n, file, sortedInts, seed);
+    }
+
     /**
      * Main method.
      *
      * @param args
-     *            the command line arguments; unused here
+     *            optionally {@code --off-heap}, the input file, a comma
+     *            separated list of amounts of words and a comma separated list
+     *            of output files; the user is prompted for a single tag cloud
+     *            if they are omitted
      */
     public static void main(String[] args) throws IOException {
+        boolean offHeap = args.length == 4 && args[0].equals("--off-heap");
+        if (args.length == 3 || offHeap) {
+            int first = args.length - 3;
+            String file = args[first];
+            String[] nStrs = args[first + 1].split(",");
+            String[] outFiles = args[first + 2].split(",");
+            if (nStrs.length != outFiles.length) {
+                System.err.println(
+                        "Error: one output file is required for each n");
+                return;
+            }
+            int[] ns = new int[nStrs.length];
+            for (int i = 0; i < nStrs.length; i++) {
+                try {
+                    ns[i] = Integer.parseInt(nStrs[i].trim());
+                } catch (NumberFormatException e) {
+                    System.err.println("Error: Number is in the wrong format");
+                    return;
+                }
+                if (ns[i] <= 0) {
+                    System.out.println("Error: Value greater than 0 required");
+                    return;
+                }
+            }
+            if (offHeap) {
+                printAllOffHeap(ns, file, outFiles);
+            } else {
+                printAll(ns, file, outFiles);
+            }
+            return;
+        }
+
         BufferedReader in = new BufferedReader(
                 new InputStreamReader(System.in));
         String file = "";
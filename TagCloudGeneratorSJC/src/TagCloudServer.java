@@ -0,0 +1,440 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tag Cloud Server. Serves tag clouds over http on localhost so that callers
+ * don't pay for starting a JVM and recounting the same input on every
+ * request.
+ *
+ * <p>
+ * {@code GET /cloud?path=FILE&n=N} returns the tag cloud of a file under the
+ * served root directory and {@code POST /cloud?n=N} returns the tag cloud of
+ * the uploaded text. Count tables and rendered html are cached, keyed by the
+ * file's modification time and length or by the uploaded text's hash.
+ * {@code GET /stats} returns the cache metrics.
+ *
+ * <p>
+ * Binding to the loopback address alone doesn't stop a web page in a local
+ * browser from calling the server, so requests whose {@code Host} isn't
+ * localhost are refused, files outside the root can't be read, and the file
+ * name and words are escaped in the returned html.
+ *
+ * @author Noah Bennett, Mark Karev
+ */
+public final class TagCloudServer {
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private TagCloudServer() {
+    }
+
+    /**
+     * Default port.
+     */
+    private static final int PORT = 8080;
+    /**
+     * Default cache bound in megabytes.
+     */
+    private static final int CACHE_MB = 256;
+    /**
+     * Bytes in a megabyte.
+     */
+    private static final long MB = 1024L * 1024L;
+    /**
+     * Title used for uploaded text.
+     */
+    private static final String UPLOAD_NAME = "upload";
+    /**
+     * Largest upload accepted, in bytes.
+     */
+    private static final int MAX_UPLOAD = 16 * 1024 * 1024;
+
+    /**
+     * Shared cache of count tables and rendered clouds.
+     */
+    private static CloudCache cache;
+    /**
+     * Canonical path of the directory files are served from.
+     */
+    private static String root;
+
+    /**
+     * Handler for {@code /cloud}.
+     */
+    private static class CloudHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                Map<String, String> query = parseQuery(
+                        exchange.getRequestURI().getRawQuery());
+                int n = parseN(query.get("n"));
+                if (!isLocalHost(exchange)) {
+                    respond(exchange, 403, "text/plain",
+                            "Error: Host must be localhost\n");
+                } else if (n <= 0) {
+                    respond(exchange, 400, "text/plain",
+                            "Error: Value greater than 0 required for n\n");
+                } else if ("GET".equals(exchange.getRequestMethod())) {
+                    File file = resolve(query.get("path"));
+                    if (file == null || !file.isFile()) {
+                        respond(exchange, 404, "text/plain",
+                                "Invalid file\n");
+                    } else {
+                        respond(exchange, 200, "text/html",
+                                cloudForFile(file, n));
+                    }
+                } else if ("POST".equals(exchange.getRequestMethod())) {
+                    String name = query.get("name");
+                    if (name == null || name.isEmpty()) {
+                        name = UPLOAD_NAME;
+                    }
+                    byte[] text = readAll(exchange.getRequestBody());
+                    if (text == null) {
+                        respond(exchange, 413, "text/plain",
+                                "Error: Upload larger than " + MAX_UPLOAD
+                                        + " bytes\n");
+                    } else {
+                        respond(exchange, 200, "text/html",
+                                cloudForUpload(text, name, n));
+                    }
+                } else {
+                    respond(exchange, 405, "text/plain",
+                            "Error: GET or POST required\n");
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error: " + e);
+                if (exchange.getResponseCode() < 0) {
+                    respond(exchange, 500, "text/plain",
+                            "Error: could not make the tag cloud\n");
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Handler for {@code /stats}.
+     */
+    private static class StatsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (isLocalHost(exchange)) {
+                    respond(exchange, 200, "text/plain", cache.stats());
+                } else {
+                    respond(exchange, 403, "text/plain",
+                            "Error: Host must be localhost\n");
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the tag cloud of the top {@code n} words in {@code file}.
+     *
+     * @param file
+     *            the input file
+     * @param n
+     *            amount of words in the tag cloud
+     * @return the html of the tag cloud
+     */
+    private static String cloudForFile(File file, int n) {
+        String path = file.getAbsolutePath();
+        String key = "file:" + file.lastModified() + ":" + file.length() + ":"
+                + path;
+        String html = cache.getHtml(key, n);
+        if (html == null) {
+            Map<String, Integer> words = cache.getCounts(key);
+            if (words == null) {
+                words = TagCloudGeneratorSJC.countWords(path);
+                cache.putCounts(key, words);
+            }
+            html = render(words, path, n);
+            cache.putHtml(key, n, html);
+        }
+        return html;
+    }
+
+    /**
+     * Returns the tag cloud of the top {@code n} words in uploaded text.
+     *
+     * @param text
+     *            the uploaded text in UTF-8
+     * @param name
+     *            name of the input shown in the title
+     * @param n
+     *            amount of words in the tag cloud
+     * @return the html of the tag cloud
+     * @throws IOException
+     *             if the text can't be read
+     */
+    private static String cloudForUpload(byte[] text, String name, int n)
+            throws IOException {
+        String hash = TagCloudGeneratorSJC
+                .toHex(TagCloudGeneratorSJC.newSha256().digest(text));
+        String key = "sha:" + hash + ":" + name;
+        String html = cache.getHtml(key, n);
+        if (html == null) {
+            Map<String, Integer> words = cache.getCounts(key);
+            if (words == null) {
+                words = new HashMap<>();
+                Set<Character> separators = TagCloudGeneratorSJC
+                        .separatorSet();
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        new ByteArrayInputStream(text), "UTF-8"));
+                String line = in.readLine();
+                while (line != null) {
+                    TagCloudGeneratorSJC.addLine(line, words, separators);
+                    line = in.readLine();
+                }
+                cache.putCounts(key, words);
+            }
+            html = render(words, name, n);
+            cache.putHtml(key, n, html);
+        }
+        return html;
+    }
+
+    /**
+     * Renders the tag cloud of the top {@code n} words of a count table.
+     *
+     * @param words
+     *            the word counts; not modified
+     * @param name
+     *            name of the input shown in the title
+     * @param n
+     *            amount of words in the tag cloud
+     * @return the html of the tag cloud
+     */
+    private static String render(Map<String, Integer> words, String name,
+            int n) {
+        List<Map.Entry<String, Integer>> sortedInts = TagCloudGeneratorSJC
+                .topWords(words.entrySet(), n);
+        StringWriter html = new StringWriter();
+        PrintWriter out = new PrintWriter(html);
+        TagCloudGeneratorSJC.printCloud(out, n, name, sortedInts, true);
+        out.flush();
+        return html.toString();
+    }
+
+    /**
+     * Reports whether the request's {@code Host} header names this machine
+     * through a loopback name, which a page on another origin can't forge.
+     *
+     * @param exchange
+     *            the exchange
+     * @return true if the host is localhost, 127.0.0.1 or [::1]
+     */
+    private static boolean isLocalHost(HttpExchange exchange) {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null) {
+            return false;
+        }
+        String name = host.trim().toLowerCase();
+        if (name.startsWith("[")) {
+            int end = name.indexOf(']');
+            name = end < 0 ? name : name.substring(0, end + 1);
+        } else if (name.indexOf(':') >= 0) {
+            name = name.substring(0, name.indexOf(':'));
+        }
+        return name.equals("localhost") || name.equals("127.0.0.1")
+                || name.equals("[::1]");
+    }
+
+    /**
+     * Returns the file {@code path} names under the served root, or null if
+     * it is missing or resolves to somewhere outside the root.
+     *
+     * @param path
+     *            the {@code path} query parameter, relative to the root or
+     *            absolute
+     * @return the file, or null
+     * @throws IOException
+     *             if the path can't be resolved
+     */
+    private static File resolve(String path) throws IOException {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = new File(root, path);
+        }
+        File canonical = file.getCanonicalFile();
+        String name = canonical.getPath();
+        String prefix = root.endsWith(File.separator) ? root
+                : root + File.separator;
+        if (!name.startsWith(prefix)) {
+            return null;
+        }
+        return canonical;
+    }
+
+    /**
+     * Parses the amount of words requested.
+     *
+     * @param n
+     *            the {@code n} query parameter
+     * @return n, or 0 if it is missing or in the wrong format
+     */
+    private static int parseN(String n) {
+        int value = 0;
+        if (n != null) {
+            try {
+                value = Integer.parseInt(n);
+            } catch (NumberFormatException e) {
+                value = 0;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Parses a raw query string into its decoded parameters.
+     *
+     * @param rawQuery
+     *            the raw query string, possibly null
+     * @return map of parameter names to values
+     * @throws UnsupportedEncodingException
+     *             if UTF-8 is not supported
+     */
+    private static Map<String, String> parseQuery(String rawQuery)
+            throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Reads the whole request body, up to {@code MAX_UPLOAD} bytes.
+     *
+     * @param in
+     *            the request body
+     * @return the bytes of the body, or null if it is larger than
+     *         {@code MAX_UPLOAD}
+     * @throws IOException
+     *             if the body can't be read
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read = in.read(buffer);
+        while (read >= 0) {
+            if (bytes.size() + read > MAX_UPLOAD) {
+                return null;
+            }
+            bytes.write(buffer, 0, read);
+            read = in.read(buffer);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Sends a response.
+     *
+     * @param exchange
+     *            the exchange
+     * @param status
+     *            http status code
+     * @param type
+     *            content type
+     * @param body
+     *            the body
+     * @throws IOException
+     *             if the response can't be written
+     */
+    private static void respond(HttpExchange exchange, int status,
+            String type, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type",
+                type + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            optional port, cache bound in megabytes and root directory
+     *            files are served from; the root defaults to the working
+     *            directory
+     * @throws IOException
+     *             if the server can't be started
+     */
+    public static void main(String[] args) throws IOException {
+        int port = PORT;
+        long cacheMb = CACHE_MB;
+        try {
+            if (args.length > 0) {
+                port = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                cacheMb = Long.parseLong(args[1]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Error: Number is in the wrong format");
+            return;
+        }
+        if (port < 0 || port > 65535) {
+            System.out.println("Error: Port from 0 to 65535 required");
+            return;
+        }
+        if (cacheMb <= 0 || cacheMb > Long.MAX_VALUE / MB) {
+            System.out.println("Error: Value greater than 0 required");
+            return;
+        }
+        File rootDir = new File(args.length > 2 ? args[2] : ".");
+        if (!rootDir.isDirectory()) {
+            System.err.println("Invalid root directory");
+            return;
+        }
+        root = rootDir.getCanonicalPath();
+        cache = new CloudCache(cacheMb * MB);
+
+        //bind to the loopback address only so the server stays local
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                0);
+        server.createContext("/cloud", new CloudHandler());
+        server.createContext("/stats", new StatsHandler());
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        System.out.println("Serving tag clouds from " + root
+                + " on http://localhost:" + port);
+    }
+}